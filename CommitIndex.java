@@ -0,0 +1,169 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * On-disk index from commit ID to the offset of the commit's record in the
+ * record file. Entries are fixed width and sorted by ID (commit IDs only ever
+ * grow, so appending keeps them sorted), and the file is memory-mapped, so a
+ * lookup is a binary search over the mapped file and never reads the whole
+ * history.
+ */
+public class CommitIndex
+{
+	// bytes in one entry: int commit ID followed by long offset
+	private static final int	ENTRY_SIZE	= 4 + 8;
+
+	private final File			INDEX_FILE;
+	private MappedByteBuffer	mapped;		// null until the first lookup
+											// after the file has grown
+	private int					lastID;		// greatest ID appended by this
+											// process, -1 if none
+
+	/**
+	 * Constructs an index kept in the given file
+	 * 
+	 * @param file
+	 *            file holding the index entries
+	 */
+	public CommitIndex(File file)
+	{
+		INDEX_FILE = file;
+		lastID = -1;
+	}
+
+	/**
+	 * Finds where the record of the commit with the given ID starts
+	 * 
+	 * @param id
+	 *            commit ID
+	 * @return offset of the record, or -1 if the commit is not indexed
+	 * @throws IOException
+	 */
+	public long find(int id) throws IOException
+	{
+		// nothing newer than what this process appended can be in the index,
+		// so there is no need to map the file again just to find that out
+		if (mapped == null && lastID >= 0 && id > lastID)
+			return -1;
+		MappedByteBuffer entries = map();
+		int low = 0;
+		int high = entries.capacity() / ENTRY_SIZE - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int midID = entries.getInt(mid * ENTRY_SIZE);
+			if (midID < id)
+				low = mid + 1;
+			else if (midID > id)
+				high = mid - 1;
+			else
+				return entries.getLong(mid * ENTRY_SIZE + 4);
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds an entry for a new commit. The ID must be greater than the ID of
+	 * every commit already in the index.
+	 * 
+	 * @param id
+	 *            commit ID
+	 * @param offset
+	 *            where the commit's record starts
+	 * @throws IOException
+	 */
+	public void append(int id, long offset) throws IOException
+	{
+		append(new int[] { id }, new long[] { offset });
+	}
+
+	/**
+	 * Adds the entries for several new commits in one write. The IDs must be
+	 * in order, and greater than the ID of every commit already in the index.
+	 * 
+	 * @param ids
+	 *            commit IDs
+	 * @param offsets
+	 *            where the record of each commit starts
+	 * @throws IOException
+	 */
+	public void append(int[] ids, long[] offsets) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(INDEX_FILE, true))))
+		{
+			for (int i = 0; i < ids.length; i++)
+			{
+				out.writeInt(ids[i]);
+				out.writeLong(offsets[i]);
+			}
+		}
+		mapped = null;
+		lastID = ids[ids.length - 1];
+	}
+
+	/**
+	 * Removes the entries of the commit with the given ID and of every
+	 * greater one, along with an entry that was cut short by a crash. Only
+	 * the end of the file is read.
+	 * 
+	 * @param id
+	 *            ID of the first commit to remove
+	 * @return offset of the record of the first commit removed, or -1 if no
+	 *         commit was removed
+	 * @throws IOException
+	 */
+	public long truncate(int id) throws IOException
+	{
+		if (!INDEX_FILE.exists())
+			return -1;
+		long length = INDEX_FILE.length();
+		long kept = length / ENTRY_SIZE;
+		long removedOffset = -1;
+		try (RandomAccessFile file = new RandomAccessFile(INDEX_FILE, "r"))
+		{
+			while (kept > 0)
+			{
+				file.seek((kept - 1) * ENTRY_SIZE);
+				if (file.readInt() < id)
+					break;
+				removedOffset = file.readLong();
+				kept--;
+			}
+		}
+		if (kept * ENTRY_SIZE == length)
+			return -1;
+		try (FileChannel channel = FileChannel.open(INDEX_FILE.toPath(), StandardOpenOption.WRITE))
+		{
+			channel.truncate(kept * ENTRY_SIZE);
+			channel.force(true);
+		}
+		mapped = null;
+		lastID = -1;
+		return removedOffset;
+	}
+
+	/**
+	 * @return the file holding the index entries
+	 */
+	public File getFile()
+	{
+		return INDEX_FILE;
+	}
+
+	private MappedByteBuffer map() throws IOException
+	{
+		if (mapped == null)
+		{
+			if (!INDEX_FILE.exists())
+				INDEX_FILE.createNewFile();
+			try (FileChannel channel = new RandomAccessFile(INDEX_FILE, "r").getChannel())
+			{
+				long size = channel.size() - channel.size() % ENTRY_SIZE;
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+		}
+		return mapped;
+	}
+}
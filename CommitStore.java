@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where commits are kept between commands. Commits are looked up by ID when a
+ * command needs them rather than all being held in memory, so implementations
+ * are free to read them lazily and to forget them again.
+ */
+public interface CommitStore
+{
+	/**
+	 * creates whatever the store needs on disk, if it does not exist yet
+	 */
+	public void init();
+
+	/**
+	 * Stores a new commit. Commits are immutable once stored.
+	 * 
+	 * @param node
+	 *            commit to be stored
+	 * @throws IOException
+	 */
+	public void add(GitletNode node) throws IOException;
+
+	/**
+	 * Stores a chain of new commits together, so either all of them are
+	 * looked up by ID afterwards or none of them are. Commits are immutable
+	 * once stored.
+	 * 
+	 * @param nodes
+	 *            commits to be stored, each one after the commits it comes
+	 *            after
+	 * @throws IOException
+	 */
+	public void addAll(List<GitletNode> nodes) throws IOException;
+
+	/**
+	 * Forgets the commits with the given ID and every greater one. They were
+	 * stored by a command that stopped before it saved any ref to them, so
+	 * nothing refers to them and their IDs can be given out again.
+	 * 
+	 * @param id
+	 *            ID of the first commit to forget
+	 * @throws IOException
+	 */
+	public void discardFrom(int id) throws IOException;
+
+	/**
+	 * Sets the journal that the files written for new commits are synced
+	 * through
+	 * 
+	 * @param journal
+	 *            the journal of the repository
+	 */
+	public void setJournal(Journal journal);
+
+	/**
+	 * Gets the commit with the given ID
+	 * 
+	 * @param id
+	 *            commit ID
+	 * @return the commit, or null if there is no commit with that ID
+	 */
+	public GitletNode get(int id);
+
+	/**
+	 * @return the ObjectStore the trees of the commits are kept in
+	 */
+	public ObjectStore getObjectStore();
+
+	/**
+	 * Gets the commit with the given ID as typed by the user
+	 * 
+	 * @param id
+	 *            commit ID
+	 * @return the commit, or null if id is not the ID of any commit
+	 */
+	public GitletNode get(String id);
+}
@@ -0,0 +1,213 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Serves gitlet commands from one long-running process, so the repository is
+ * loaded once instead of once per command. The daemon listens on a Unix
+ * domain socket in .gitlet; main forwards each command to it when it is
+ * running, and prints whatever the command printed.
+ * 
+ * Commands run by a gitlet that is not going through the daemon still work:
+ * before each command the daemon compares the stat of the files that hold the
+ * repository's state with what they were after its own last command, and
+ * loads the repository again if any of them changed. Like any other gitlet,
+ * the daemon holds the lock while it runs a command that changes the
+ * repository, and reads a snapshot without it for one that only reads.
+ */
+public class Daemon
+{
+	private static final File	SOCKET_FILE	= new File(".gitlet/daemon.sock");
+	// files that every command that changes the repository writes
+	private static final File[]	STATE_FILES	= { new File(".gitlet/refs"), new File(".gitlet/index"),
+			new File(".gitlet/commits/index") };
+
+	private Gitlet				gitlet;
+	private String[]			stamp;		// stat of STATE_FILES when gitlet
+											// was last loaded or saved
+
+	/**
+	 * Sends a command to the daemon, if one is running, and prints what it
+	 * printed
+	 * 
+	 * @param args
+	 *            the command and its arguments
+	 * @return true if the daemon ran the command, false if there is no daemon
+	 */
+	public static boolean forward(String[] args)
+	{
+		if (!SOCKET_FILE.exists())
+			return false;
+		// the daemon replaces System.out while it runs a command, so hold on
+		// to this process's own
+		PrintStream stdout = System.out;
+		try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET_FILE.toPath())))
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			out.writeInt(args.length);
+			for (String arg : args)
+				out.writeUTF(arg);
+			out.flush();
+			// the daemon closes the connection once the command is done
+			Channels.newInputStream(channel).transferTo(stdout);
+			stdout.flush();
+			return true;
+		}
+		catch (IOException e)
+		{
+			// the daemon went away without removing its socket
+			return false;
+		}
+	}
+
+	/**
+	 * Serves commands until a daemon-stop command is sent
+	 */
+	public void serve()
+	{
+		if (!new File(".gitlet").exists())
+		{
+			System.out.println("A gitlet version control system does not exist in the current directory.");
+			return;
+		}
+		if (forward(new String[] { "daemon-ping" }))
+		{
+			System.out.println("A gitlet daemon is already running.");
+			return;
+		}
+		SOCKET_FILE.delete();
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+		{
+			server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+			SOCKET_FILE.deleteOnExit();
+			System.out.println("Serving gitlet commands on " + SOCKET_FILE + ".");
+			boolean stopped = false;
+			while (!stopped)
+			{
+				try (SocketChannel client = server.accept())
+				{
+					stopped = handle(client);
+				}
+				catch (IOException e)
+				{
+					// the client went away; keep serving the others
+					e.printStackTrace();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			SOCKET_FILE.delete();
+		}
+	}
+
+	/**
+	 * Runs one command sent by a client, sending it everything the command
+	 * printed
+	 * 
+	 * @param client
+	 *            connection to the client
+	 * @return true if the command was to stop the daemon
+	 * @throws IOException
+	 */
+	private boolean handle(SocketChannel client) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+		String[] args = new String[in.readInt()];
+		for (int i = 0; i < args.length; i++)
+			args[i] = in.readUTF();
+		PrintStream out = new PrintStream(new BufferedOutputStream(Channels.newOutputStream(client)), false);
+		if (args.length > 0 && args[0].equals("daemon-stop"))
+		{
+			out.println("Stopped serving gitlet commands.");
+			out.flush();
+			return true;
+		}
+		if (args.length > 0 && args[0].equals("daemon-ping"))
+			return false;
+
+		PrintStream originalOut = System.out;
+		PrintStream originalErr = System.err;
+		System.setOut(out);
+		System.setErr(out);
+		try
+		{
+			if (Gitlet.isReadOnly(args))
+			{
+				// stat the files before they are read, so a save made while
+				// they are read makes the next command load them again
+				String[] current = stamp();
+				if (gitlet == null || !Arrays.equals(stamp, current))
+					gitlet = new File(".gitlet").exists() ? new Gitlet(true) : null;
+				stamp = current;
+				Gitlet.run(gitlet, args);
+			}
+			else if (!new File(".gitlet").exists())
+				gitlet = Gitlet.run(null, args);
+			else
+			{
+				FileChannel lock = Gitlet.lock();
+				try
+				{
+					// a snapshot may have been read from the journal of a save
+					// that other commands will still check the files against
+					if (gitlet == null || gitlet.isSnapshot() || !Arrays.equals(stamp, stamp()))
+						gitlet = new Gitlet();
+					gitlet = Gitlet.run(gitlet, args);
+					stamp = stamp();
+				}
+				finally
+				{
+					lock.close();
+				}
+			}
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+			// the command may have stopped halfway, so do not trust what is
+			// in memory
+			gitlet = null;
+		}
+		finally
+		{
+			System.setOut(originalOut);
+			System.setErr(originalErr);
+			out.flush();
+		}
+		return false;
+	}
+
+	/**
+	 * @return size, modification time and file key of each of STATE_FILES
+	 */
+	private static String[] stamp()
+	{
+		String[] stamp = new String[STATE_FILES.length];
+		for (int i = 0; i < STATE_FILES.length; i++)
+		{
+			try
+			{
+				BasicFileAttributes attributes = Files.readAttributes(STATE_FILES[i].toPath(),
+						BasicFileAttributes.class);
+				stamp[i] = attributes.size() + " " + attributes.lastModifiedTime() + " " + attributes.fileKey();
+			}
+			catch (IOException e)
+			{
+				// a file that does not exist yet has no stat
+			}
+		}
+		return stamp;
+	}
+}
@@ -0,0 +1,155 @@
+import java.io.*;
+import java.util.HashMap;
+
+/**
+ * Binary delta between two versions of a file, as a list of instructions that
+ * either copy a run of bytes out of the base version or insert new bytes.
+ * Runs are found by indexing the base in fixed-size blocks and sliding a
+ * rolling hash over the target, so making a delta is linear in the sizes of
+ * both versions.
+ * 
+ * A delta is an int length of the target followed by instructions: COPY with
+ * an int offset and int length into the base, or INSERT with an int length
+ * and that many bytes.
+ */
+public class Delta
+{
+	private static final byte	COPY	= 0;
+	private static final byte	INSERT	= 1;
+	// the shortest run worth copying instead of inserting
+	private static final int	BLOCK	= 16;
+	// multiplier of the rolling hash, and multiplier^(BLOCK - 1)
+	private static final int	PRIME	= 31;
+	private static final int	TOP		= pow(PRIME, BLOCK - 1);
+
+	/**
+	 * Makes the delta that turns base into target
+	 * 
+	 * @param base
+	 *            the version the delta is against
+	 * @param target
+	 *            the version the delta makes
+	 * @return the delta
+	 */
+	public static byte[] create(byte[] base, byte[] target)
+	{
+		// key is the hash of a block of base, value is where the block starts
+		HashMap<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+		for (int i = 0; i + BLOCK <= base.length; i += BLOCK)
+			blocks.putIfAbsent(hash(base, i), i);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try
+		{
+			out.writeInt(target.length);
+			int inserted = 0;	// start of the bytes not written out yet
+			int i = 0;
+			int h = target.length >= BLOCK ? hash(target, 0) : 0;
+			while (i + BLOCK <= target.length)
+			{
+				Integer start = blocks.get(h);
+				if (start != null && matches(base, start, target, i, BLOCK))
+				{
+					int length = BLOCK;
+					while (start + length < base.length && i + length < target.length
+							&& base[start + length] == target[i + length])
+						length++;
+					writeInsert(out, target, inserted, i);
+					out.writeByte(COPY);
+					out.writeInt(start);
+					out.writeInt(length);
+					i += length;
+					inserted = i;
+					if (i + BLOCK <= target.length)
+						h = hash(target, i);
+				}
+				else
+				{
+					if (i + BLOCK < target.length)
+						h = (h - target[i] * TOP) * PRIME + target[i + BLOCK];
+					i++;
+				}
+			}
+			writeInsert(out, target, inserted, target.length);
+			out.close();
+		}
+		catch (IOException e)
+		{
+			// writing to a byte array does not fail
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Makes the version of a file that a delta describes
+	 * 
+	 * @param base
+	 *            the version the delta is against
+	 * @param delta
+	 *            the delta
+	 * @return the version the delta makes
+	 * @throws IOException
+	 *             if the delta is corrupt
+	 */
+	public static byte[] apply(byte[] base, byte[] delta) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+		byte[] target = new byte[in.readInt()];
+		int written = 0;
+		while (written < target.length)
+		{
+			byte op = in.readByte();
+			int length;
+			if (op == COPY)
+			{
+				int start = in.readInt();
+				length = in.readInt();
+				System.arraycopy(base, start, target, written, length);
+			}
+			else if (op == INSERT)
+			{
+				length = in.readInt();
+				in.readFully(target, written, length);
+			}
+			else
+				throw new IOException("Corrupt delta instruction " + op);
+			written += length;
+		}
+		return target;
+	}
+
+	private static void writeInsert(DataOutputStream out, byte[] target, int start, int end) throws IOException
+	{
+		if (start == end)
+			return;
+		out.writeByte(INSERT);
+		out.writeInt(end - start);
+		out.write(target, start, end - start);
+	}
+
+	private static boolean matches(byte[] a, int aStart, byte[] b, int bStart, int length)
+	{
+		for (int i = 0; i < length; i++)
+			if (a[aStart + i] != b[bStart + i])
+				return false;
+		return true;
+	}
+
+	private static int hash(byte[] bytes, int start)
+	{
+		int h = 0;
+		for (int i = start; i < start + BLOCK; i++)
+			h = h * PRIME + bytes[i];
+		return h;
+	}
+
+	private static int pow(int base, int exponent)
+	{
+		int result = 1;
+		for (int i = 0; i < exponent; i++)
+			result *= base;
+		return result;
+	}
+}
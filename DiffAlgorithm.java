@@ -0,0 +1,20 @@
+import java.util.List;
+
+/**
+ * A way of finding the differences between two sequences of lines. Lines are
+ * compared as ints, numbered so that equal lines have equal numbers; see
+ * Lines.number.
+ */
+public interface DiffAlgorithm
+{
+	/**
+	 * Finds a short list of edits that turns a into b
+	 * 
+	 * @param a
+	 *            numbered lines of the first sequence
+	 * @param b
+	 *            numbered lines of the second sequence
+	 * @return the edits, in order; lines between them are the same in both
+	 */
+	public List<Edit> diff(int[] a, int[] b);
+}
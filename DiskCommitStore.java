@@ -0,0 +1,227 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Keeps every commit as its own immutable record, appended to
+ * .gitlet/commits/records when the commit is made. A CommitIndex maps each
+ * commit ID to where its record starts, so a commit is read back only when a
+ * command actually asks for it and the cost of a command no longer depends on
+ * how long the history is. The most recently used commits are kept in a
+ * bounded cache, so memory use stays flat however much of the history a
+ * command walks.
+ */
+public class DiskCommitStore implements CommitStore
+{
+	// number of commits kept in memory by default
+	public static final int						DEFAULT_CAPACITY	= 1024;
+
+	private final File							COMMIT_DIR;
+	private final File							RECORD_FILE;
+	private CommitIndex							index;
+	private ObjectStore							objects;	// where the trees
+															// are kept
+	private Journal								journal;	// null if new
+															// records are not
+															// synced
+	// most recently used commits, least recently used first
+	// key is the commit ID
+	private LinkedHashMap<Integer, GitletNode>	loaded;
+
+	/**
+	 * Constructs a store rooted at the default .gitlet/commits directory
+	 * 
+	 * @param objects
+	 *            ObjectStore the trees of the commits are kept in
+	 */
+	public DiskCommitStore(ObjectStore objects)
+	{
+		this(new File(".gitlet/commits"), DEFAULT_CAPACITY, objects);
+	}
+
+	/**
+	 * Constructs a store rooted at the given directory
+	 * 
+	 * @param dir
+	 *            directory that holds the commit records
+	 * @param capacity
+	 *            most commits to keep in memory at once
+	 * @param objects
+	 *            ObjectStore the trees of the commits are kept in
+	 */
+	public DiskCommitStore(File dir, final int capacity, ObjectStore objects)
+	{
+		COMMIT_DIR = dir;
+		this.objects = objects;
+		RECORD_FILE = new File(dir, "records");
+		index = new CommitIndex(new File(dir, "index"));
+		loaded = new LinkedHashMap<Integer, GitletNode>(16, 0.75f, true)
+		{
+			protected boolean removeEldestEntry(Map.Entry<Integer, GitletNode> eldest)
+			{
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return number of commits currently kept in memory
+	 */
+	int cachedCount()
+	{
+		return loaded.size();
+	}
+
+	/**
+	 * creates the directory used by the store if it does not exist yet
+	 */
+	public void init()
+	{
+		COMMIT_DIR.mkdirs();
+	}
+
+	/**
+	 * Writes the record of a new commit. Records are immutable, so a commit
+	 * that has already been written is left alone.
+	 * 
+	 * @param node
+	 *            commit to be stored
+	 * @throws IOException
+	 */
+	public void add(GitletNode node) throws IOException
+	{
+		addAll(Collections.singletonList(node));
+	}
+
+	/**
+	 * Writes the records of a chain of new commits in one append to the
+	 * record file, then indexes them all in one append to the index. A
+	 * record is only looked up through the index, so until the index is
+	 * written none of the commits are in the store. Commits that have
+	 * already been written are left alone.
+	 * 
+	 * @param nodes
+	 *            commits to be stored, each one after the commits it comes
+	 *            after
+	 * @throws IOException
+	 */
+	public void addAll(List<GitletNode> nodes) throws IOException
+	{
+		ArrayList<GitletNode> toWrite = new ArrayList<GitletNode>();
+		for (GitletNode node : nodes)
+			if (index.find(node.getID()) < 0)
+				toWrite.add(node);
+		if (!toWrite.isEmpty())
+		{
+			int[] ids = new int[toWrite.size()];
+			long[] offsets = new long[toWrite.size()];
+			long start = RECORD_FILE.length();
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(RECORD_FILE, true))))
+			{
+				for (int i = 0; i < toWrite.size(); i++)
+				{
+					ids[i] = toWrite.get(i).getID();
+					offsets[i] = start + out.size();
+					toWrite.get(i).write(out, objects);
+				}
+			}
+			index.append(ids, offsets);
+			if (journal != null)
+			{
+				journal.written(RECORD_FILE);
+				journal.written(index.getFile());
+			}
+		}
+		for (GitletNode node : nodes)
+		{
+			node.setStore(this);
+			loaded.put(node.getID(), node);
+		}
+	}
+
+	/**
+	 * Forgets the commits with the given ID and every greater one, cutting
+	 * their entries off the end of the index and their records off the end
+	 * of the record file
+	 * 
+	 * @param id
+	 *            ID of the first commit to forget
+	 * @throws IOException
+	 */
+	public void discardFrom(int id) throws IOException
+	{
+		long offset = index.truncate(id);
+		if (offset >= 0)
+			try (RandomAccessFile records = new RandomAccessFile(RECORD_FILE, "rw"))
+			{
+				records.setLength(offset);
+			}
+		for (Iterator<Integer> ids = loaded.keySet().iterator(); ids.hasNext();)
+			if (ids.next() >= id)
+				ids.remove();
+	}
+
+	public void setJournal(Journal journal)
+	{
+		this.journal = journal;
+	}
+
+	/**
+	 * Gets the commit with the given ID, reading its record if this is the
+	 * first time it is asked for
+	 * 
+	 * @param id
+	 *            commit ID
+	 * @return the commit, or null if there is no commit with that ID
+	 */
+	public GitletNode get(int id)
+	{
+		GitletNode node = loaded.get(id);
+		if (node != null)
+			return node;
+		try (FileChannel records = new RandomAccessFile(RECORD_FILE, "r").getChannel())
+		{
+			long offset = index.find(id);
+			if (offset < 0)
+				return null;
+			records.position(offset);
+			node = GitletNode.read(new DataInputStream(new BufferedInputStream(Channels.newInputStream(records))), this);
+		}
+		catch (FileNotFoundException e)
+		{
+			return null;
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+		loaded.put(id, node);
+		return node;
+	}
+
+	public ObjectStore getObjectStore()
+	{
+		return objects;
+	}
+
+	/**
+	 * Gets the commit with the given ID as typed by the user
+	 * 
+	 * @param id
+	 *            commit ID
+	 * @return the commit, or null if id is not the ID of any commit
+	 */
+	public GitletNode get(String id)
+	{
+		try
+		{
+			return get(Integer.parseInt(id));
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A region where two sequences of lines differ: lines [beginA, endA) of the
+ * first sequence are replaced by lines [beginB, endB) of the second. Either
+ * region may be empty, for lines that were only inserted or only deleted.
+ */
+public class Edit
+{
+	private final int	beginA;
+	private final int	endA;
+	private final int	beginB;
+	private final int	endB;
+
+	/**
+	 * Constructs an edit
+	 * 
+	 * @param beginA
+	 *            first line of the region in the first sequence
+	 * @param endA
+	 *            line after the region in the first sequence
+	 * @param beginB
+	 *            first line of the region in the second sequence
+	 * @param endB
+	 *            line after the region in the second sequence
+	 */
+	public Edit(int beginA, int endA, int beginB, int endB)
+	{
+		this.beginA = beginA;
+		this.endA = endA;
+		this.beginB = beginB;
+		this.endB = endB;
+	}
+
+	/**
+	 * Makes the edits between two sequences from which of their lines are
+	 * not in the other. Lines that are not marked are matched with each
+	 * other in order.
+	 * 
+	 * @param changedA
+	 *            true for each line of the first sequence not in the second
+	 * @param changedB
+	 *            true for each line of the second sequence not in the first
+	 * @return the edits, in order
+	 */
+	static List<Edit> fromChanged(boolean[] changedA, boolean[] changedB)
+	{
+		ArrayList<Edit> edits = new ArrayList<Edit>();
+		int i = 0;
+		int j = 0;
+		while (i < changedA.length || j < changedB.length)
+		{
+			if ((i < changedA.length && changedA[i]) || (j < changedB.length && changedB[j]))
+			{
+				int beginA = i;
+				int beginB = j;
+				while (i < changedA.length && changedA[i])
+					i++;
+				while (j < changedB.length && changedB[j])
+					j++;
+				edits.add(new Edit(beginA, i, beginB, j));
+			}
+			else
+			{
+				i++;
+				j++;
+			}
+		}
+		return edits;
+	}
+
+	public int getBeginA()
+	{
+		return beginA;
+	}
+
+	public int getEndA()
+	{
+		return endA;
+	}
+
+	public int getBeginB()
+	{
+		return beginB;
+	}
+
+	public int getEndB()
+	{
+		return endB;
+	}
+
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof Edit))
+			return false;
+		Edit other = (Edit) obj;
+		return beginA == other.beginA && endA == other.endA && beginB == other.beginB && endB == other.endB;
+	}
+
+	public int hashCode()
+	{
+		return ((beginA * 31 + endA) * 31 + beginB) * 31 + endB;
+	}
+
+	public String toString()
+	{
+		return "Edit[" + beginA + "-" + endA + "," + beginB + "-" + endB + "]";
+	}
+}
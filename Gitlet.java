@@ -1,47 +1,81 @@
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
 import java.nio.file.*;
 import java.util.*;
 
 import static java.nio.file.StandardCopyOption.*;
 
-public class Gitlet implements Serializable
+public class Gitlet
 {
+	// commands that only read the repository, so they do not wait for the
+	// lock, and save only the stat of files they read, when the lock is free
+	private static final Set<String>				READ_ONLY	= new HashSet<String>(
+			Arrays.asList("log", "find", "global-log", "status", "diff"));
+	// held by every command that changes the repository, from before it loads
+	// the repository until after it saves it
+	private static final File						LOCK_FILE	= new File(".gitlet/lock");
 
 	private int										numberOfCommit;
 	// keep track of branches
 	// key is the name of the branch
 	// value is most recent GitletNode of branch
 	private HashMap<String, GitletNode>				branches;
-	// HashMap of all commits
-	// key is commit message
-	// value is bucket of all commits that have the same message
-	private HashMap<String, LinkedList<GitletNode>>	commits;
-	private final File								STAGING_DIR	= new File(".gitlet/staging");
-	private final File								COMMIT_DIR	= new File(".gitlet/commits");
-	private LinkedList<String>						inStagingDir;
-	private HashSet<String>							untrack;
+	// every commit ever made, each one read from disk only when needed
+	private CommitStore								commitStore;
+	// current branch, number of commits and the head of each branch
+	private final File								REFS_FILE	= new File(".gitlet/refs");
+	private byte[]									savedRefs;	// contents of
+																	// REFS_FILE as
+																	// last read or
+																	// written
+	// syncs what a command wrote and replaces the refs and the index together
+	private Journal									journal;
+	private boolean									snapshot;	// true if loaded
+																	// without the
+																	// lock
+	// stat of the files in the working directory gitlet last read or wrote,
+	// and the staged files and files marked for untracking
+	private Index									index;
+	private ObjectStore								objects;
 	private String									currentBranch;
 	public boolean									isConflicting;	// specific for merge
-	private HashMap<String, GitletNode>				tableOfCommitID;
 	// modified for rebase
 	// to contain each node that needs to be rebase
 	private Stack<GitletNode>						nodesToRebase;
 
 	/**
 	 * Gitlet constructor, initializes all the instance variables if its the
-	 * first time Gitlet gets created, creates all the necessary directories
+	 * first time Gitlet gets created, creates all the necessary directories;
+	 * otherwise loads the refs and the staging area saved by the last command
 	 */
 	public Gitlet()
+	{
+		this(false);
+	}
+
+	/**
+	 * Gitlet constructor, initializes all the instance variables if its the
+	 * first time Gitlet gets created, creates all the necessary directories;
+	 * otherwise loads the refs and the staging area saved by the last command
+	 * 
+	 * @param snapshot
+	 *            true to load the repository for a command that only reads
+	 *            it, which does not wait for the lock
+	 */
+	public Gitlet(boolean snapshot)
 	{
 		File gitletDir = new File(".gitlet");
 		numberOfCommit = 0;
-		untrack = new HashSet<String>();
 		branches = new HashMap<String, GitletNode>();
-		commits = new HashMap<String, LinkedList<GitletNode>>();
-		tableOfCommitID = new HashMap<String, GitletNode>();
-		inStagingDir = new LinkedList<String>();
+		objects = new ObjectStore();
+		commitStore = new DiskCommitStore(objects);
+		index = new Index();
+		journal = new Journal();
+		objects.setJournal(journal);
+		commitStore.setJournal(journal);
+		this.snapshot = snapshot;
 
 		// modified for rebase
 		nodesToRebase = new Stack<GitletNode>();
@@ -52,22 +86,246 @@ public class Gitlet implements Serializable
 		if (!gitletDir.exists())
 		{
 			gitletDir.mkdir();
-			STAGING_DIR.mkdir();
-			COMMIT_DIR.mkdir();
-			commit("initial commit");
+			objects.init();
+			commitStore.init();
+			try
+			{
+				commit("initial commit");
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		else
+		{
+			try
+			{
+				if (snapshot)
+					loadSnapshot();
+				else
+					load();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * reads the refs and the staging area; commits themselves are only read
+	 * from commitStore when a command needs them. A save that was cut short
+	 * is finished or undone first, and commits stored by a command that
+	 * stopped before saving are forgotten. Files the index could not trust
+	 * when they were recorded are read again once they can be, so this
+	 * command finds them unchanged from their stat.
+	 * 
+	 * @throws IOException
+	 */
+	private void load() throws IOException
+	{
+		journal.recover();
+		index.load();
+		new WorkingTree().refreshRacy(index);
+		readRefs(Files.readAllBytes(REFS_FILE.toPath()));
+		commitStore.discardFrom(numberOfCommit);
+	}
+
+	/**
+	 * reads the refs and the staging area as they were after some save,
+	 * without the lock and without writing anything. A command holding the
+	 * lock may be replacing the refs and the index while they are read, so
+	 * they are read again until the refs name the index that was read; a
+	 * file its save has not replaced yet is read from its journal instead.
+	 * Commits are immutable and written before any ref points to them, so
+	 * every commit reachable from the refs can be read as well.
+	 * 
+	 * @throws IOException
+	 */
+	private void loadSnapshot() throws IOException
+	{
+		File indexFile = index.getFile();
+		while (true)
+		{
+			Map<File, byte[]> saving = journal.read();
+			if (saving == null)
+				saving = Collections.emptyMap();
+			byte[] refs = saving.containsKey(REFS_FILE) ? saving.get(REFS_FILE) : Files.readAllBytes(REFS_FILE.toPath());
+			if (saving.containsKey(indexFile))
+				index.load(saving.get(indexFile));
+			else
+				index.load();
+			if (readRefs(refs).equals(index.getID()))
+				return;
 		}
 	}
+
+	/**
+	 * sets the current branch, the number of commits and the head of each
+	 * branch from the contents of the refs file
+	 * 
+	 * @param refs
+	 *            contents of the refs file
+	 * @return ID of the index saved together with the refs
+	 * @throws IOException
+	 */
+	private String readRefs(byte[] refs) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(refs)))
+		{
+			currentBranch = in.readUTF();
+			numberOfCommit = in.readInt();
+			String indexID = in.readUTF();
+			branches.clear();
+			for (int i = in.readInt(); i > 0; i--)
+			{
+				String branch = in.readUTF();
+				branches.put(branch, commitStore.get(in.readInt()));
+			}
+			savedRefs = refs;
+			return indexID;
+		}
+	}
+
+	/**
+	 * writes the refs and the staging area so the next command can pick up
+	 * where this one left off; commits were already written when they were
+	 * made, so the cost of saving does not grow with the history. Everything
+	 * the command wrote is synced to disk first, and the refs and the staging
+	 * area are replaced together through the journal, so a crash leaves the
+	 * repository as it was before the command or as it is after it. The refs
+	 * record the ID of the index saved with them, so commands reading the
+	 * repository without the lock can tell whether the two match. Files the
+	 * index could not trust yet when they were recorded are recorded again
+	 * once they can be.
+	 * 
+	 * @throws IOException
+	 */
+	public void save() throws IOException
+	{
+		new WorkingTree().refreshRacy(index);
+		index.save(journal);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(currentBranch);
+		out.writeInt(numberOfCommit);
+		out.writeUTF(index.getID());
+		out.writeInt(branches.size());
+		for (Map.Entry<String, GitletNode> branch : branches.entrySet())
+		{
+			out.writeUTF(branch.getKey());
+			out.writeInt(branch.getValue().getID());
+		}
+		byte[] refs = bytes.toByteArray();
+		if (!Arrays.equals(refs, savedRefs))
+			journal.write(REFS_FILE, refs);
+		journal.commit();
+		savedRefs = refs;
+	}
+
+	/**
+	 * saves what a command that only reads the repository recorded in the
+	 * index, which is the stat of the files it had to read, if no other
+	 * command holds the lock and nothing was saved since the snapshot was
+	 * read. Otherwise a later command reads the files again.
+	 * 
+	 * @throws IOException
+	 */
+	void saveIfUnlocked() throws IOException
+	{
+		if (!index.hasChanged())
+			return;
+		try (FileChannel channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE))
+		{
+			if (channel.tryLock() == null)
+				return;
+			if (journal.read() == null && Arrays.equals(Files.readAllBytes(REFS_FILE.toPath()), savedRefs))
+				save();
+		}
+		catch (OverlappingFileLockException e)
+		{
+			// another thread of this process holds the lock
+		}
+	}
+
+	/**
+	 * Takes the lock that every command that changes the repository holds
+	 * from before it loads the repository until after it saves it, waiting
+	 * for the command holding it, if any, to finish. Commands that only read
+	 * the repository do not take it.
+	 * 
+	 * @return channel of the lock file; closing it releases the lock
+	 * @throws IOException
+	 */
+	static FileChannel lock() throws IOException
+	{
+		FileChannel channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		try
+		{
+			channel.lock();
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	/**
+	 * @param args
+	 *            a command and its arguments
+	 * @return true if the command only reads the repository
+	 */
+	static boolean isReadOnly(String[] args)
+	{
+		return args.length > 0 && READ_ONLY.contains(args[0]);
+	}
+
+	/**
+	 * @return true if the repository was loaded without the lock, for
+	 *         commands that only read it
+	 */
+	public boolean isSnapshot()
+	{
+		return snapshot;
+	}
 	
 	/**
 	 * make a new commit with a message
 	 * 
 	 * @param message
 	 *            message associated with the commit
+	 * @throws IOException
+	 *             if the commit could not be stored, in which case the branch
+	 *             and the staging area are left as they were
+	 */
+	public void commit(String message) throws IOException
+	{
+		commit(message, null);
+	}
+
+	/**
+	 * make a new commit with a message, and with the head of a merged branch
+	 * as its second parent
+	 * 
+	 * @param message
+	 *            message associated with the commit
+	 * @param merged
+	 *            head of the branch merged into the current one, or null if
+	 *            this is not a merge commit; a merge commit is made even if
+	 *            nothing is staged, so later merges know what was merged
+	 * @throws IOException
+	 *             if the commit could not be stored, in which case the branch
+	 *             and the staging area are left as they were
 	 */
-	public void commit(String message)
+	private void commit(String message, GitletNode merged) throws IOException
 	{
 		// check if there is anything to commit
-		if (numberOfCommit != 0 && inStagingDir.isEmpty() && untrack.isEmpty())
+		if (numberOfCommit != 0 && !index.hasStagedChanges() && merged == null)
 		{
 			System.out.println("No changes added to the commit.");
 			return;
@@ -76,76 +334,39 @@ public class Gitlet implements Serializable
 		isConflicting = false;
 
 		// make new GitletNode
-		GitletNode commitNode = new GitletNode(message, numberOfCommit, branches.get(currentBranch));
+		GitletNode commitNode = new GitletNode(message, numberOfCommit, branches.get(currentBranch), merged);
 
 		if (numberOfCommit > 0)
 		{
-			try
-			{
-				/*
-				 * add reference of previous files that are not going to be
-				 * removed to the new GitletNode folder
-				 */
-				copyToNewCommit(commitNode);
-				/*
-				 * at the end of commit staging folder should be empty so we
-				 * move files from staging to the new commit
-				 */
-				moveFromStagingToNewCommit(commitNode);
-				untrack.clear();
-				for (File file : STAGING_DIR.listFiles())
-					file.delete();
-			}
-			catch (IOException e)
-			{
-				e.printStackTrace();
-			}
+			/*
+			 * the new GitletNode starts out with the files of the previous
+			 * commit; at the end of commit staging area should be empty so we
+			 * hand the staged blobs and removals over to the new commit
+			 */
+			moveFromStagingToNewCommit(commitNode);
 		}
 
+		// nothing changes until the commit is stored, so a commit that fails
+		// leaves the staged files staged
+		commitStore.add(commitNode);
+		index.clearStaged();
 		numberOfCommit++;
 
 		branches.put(currentBranch, commitNode);
-		if (!commits.containsKey(commitNode.getMessage()))
-			commits.put(commitNode.getMessage(), new LinkedList<GitletNode>());
-		commits.get(commitNode.getMessage()).add(commitNode);
-		tableOfCommitID.put(Integer.toString(commitNode.getID()), commitNode);
 	}
 
 	/**
-	 * Copy all files from staging folder to the new commit folder and adds the
-	 * file name to the list of files in node
+	 * Records the blob of every staged file in the new commit and removes the
+	 * files marked for untracking from it; the contents are already in
+	 * objects so nothing is copied
 	 * 
 	 * @param node
-	 *            GitletNode to add everything to
-	 * @throws IOException
+	 *            GitletNode to add everything to, which starts out with all the
+	 *            files of the previous commit
 	 */
-	private void moveFromStagingToNewCommit(GitletNode node) throws IOException
+	private void moveFromStagingToNewCommit(GitletNode node)
 	{
-		File newCommit = node.getFolder();
-		while (!inStagingDir.isEmpty())
-		{
-			String fileName = inStagingDir.pop();
-			File file = new File(STAGING_DIR, fileName);
-			node.addFile(fileName);
-			File newCommitPath = new File(newCommit, fileName);
-			newCommitPath.mkdirs();
-			Files.move(file.toPath(), newCommitPath.toPath(), REPLACE_EXISTING);
-		}
-	}
-
-	/**
-	 * adds the names of all the files that will not be modified into the list
-	 * of files in node, excluding the ones that have been untracked
-	 * 
-	 * @param node
-	 *            node to add file names to
-	 */
-	private void copyToNewCommit(GitletNode node)
-	{
-		ArrayList<String> files = branches.get(currentBranch).getFiles();
-		for (String fileName : files)
-			if (!inStagingDir.contains(fileName) && !untrack.contains(fileName))
-				node.addFile(fileName);
+		node.update(index.getStagedChanges());
 	}
 
 	/**
@@ -158,14 +379,18 @@ public class Gitlet implements Serializable
 	 */
 	public void find(String commitMessage)
 	{
-		LinkedList<GitletNode> nodes = commits.get(commitMessage);
-		if (nodes == null)
+		boolean found = false;
+		for (int id = 0; id < numberOfCommit; id++)
 		{
-			System.out.println("Found no commit with that message.");
-			return;
+			GitletNode node = commitStore.get(id);
+			if (node.getMessage().equals(commitMessage))
+			{
+				System.out.println(node.getID());
+				found = true;
+			}
 		}
-		for (GitletNode node : nodes)
-			System.out.println(node.getID());
+		if (!found)
+			System.out.println("Found no commit with that message.");
 	}
 
 	/**
@@ -181,89 +406,112 @@ public class Gitlet implements Serializable
 	 */
 	public void global_log()
 	{
-		for (GitletNode node : tableOfCommitID.values())
-			node.print();
+		for (int id = 0; id < numberOfCommit; id++)
+			commitStore.get(id).print();
 	}
 
 	/**
-	 * add file into the staging folder for the next commit
+	 * add files into the staging area for the next commit, storing their
+	 * contents in objects; each name can be a file, a directory, whose files
+	 * are all added, or a glob pattern matched against the paths of the files
+	 * in the working directory. Files that index shows have not changed since
+	 * gitlet last read or wrote them are not read again, and the rest are
+	 * hashed and stored in parallel
 	 * 
-	 * @param fileName
-	 *            fileName to add into the staging folder
+	 * @param fileNames
+	 *            names of the files, directories or patterns to add into the
+	 *            staging area
+	 * @throws IOException
+	 *             if a file that exists could not be read or stored
 	 */
-	public void add(String fileName)
+	public void add(String... fileNames) throws IOException
 	{
-		// fileName could be a path to the file
-		File fileToAdd = new File(fileName);
-
-		/*
-		 * check if file exists in any directories or its subdirectries of the
-		 * working directory or its in the working directory ( which is the same
-		 * directory that contains the .gitlet folder )
-		 */
-		if (fileToAdd.isDirectory() || !fileToAdd.exists())
+		WorkingTree workingTree = new WorkingTree();
+		TreeSet<String> workingFiles = null;	// listed the first time a
+												// pattern needs them
+		LinkedHashSet<String> toAdd = new LinkedHashSet<String>();
+		for (String fileName : fileNames)
 		{
-			System.out.println("File does not exist.");
-			return;
+			// fileName could be a path to the file
+			File fileToAdd = new File(fileName);
+			if (fileToAdd.isFile())
+				toAdd.add(fileToAdd.getPath());
+			else if (fileToAdd.isDirectory())
+			{
+				String dir = Paths.get(fileName).normalize().toString();
+				String prefix = dir.isEmpty() ? "" : dir + "/";
+				for (String path : new WorkingTree(fileToAdd).listFiles())
+					toAdd.add(prefix + path);
+			}
+			else if (fileName.matches(".*[*?\\[{].*"))
+			{
+				if (workingFiles == null)
+					workingFiles = workingTree.listFiles();
+				PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + fileName);
+				boolean matched = false;
+				for (String path : workingFiles)
+					if (matcher.matches(Paths.get(path)))
+					{
+						toAdd.add(path);
+						matched = true;
+					}
+				if (!matched)
+					System.out.println("File does not exist.");
+			}
+			else
+				System.out.println("File does not exist.");
 		}
 
-		// if it was marked for "untracking", just unmark it
-		if (untrack.contains(fileName))
+		ArrayList<String> toStage = new ArrayList<String>();
+		for (String path : toAdd)
 		{
-			untrack.remove(fileName);
-			return;
+			// if it was marked for "untracking", just unmark it
+			if (index.isMarkedRemoved(path))
+				index.unstage(path);
+			else
+				toStage.add(path);
 		}
 
-		// put it in the staging folder
-		try
+		// put them in the staging area
+		HashMap<String, String> blobs = workingTree.storeFiles(toStage, index, objects);
+		for (String path : toStage)
 		{
-
-			// what if file was in a directory?
-			// need to get the file name and not the path
-			// use File.getname()
-
-			File toStagingDir = new File(".gitlet/staging/" + fileToAdd.getPath());
-			toStagingDir.getParentFile().mkdirs();
-			copyFileUsingFileChannels(fileToAdd, toStagingDir);
-			inStagingDir.add(fileToAdd.getPath());
-		}
-		catch (IOException e)
-		{
-			e.printStackTrace();
+			if (blobs.containsKey(path))
+				index.stage(path, blobs.get(path));
+			else
+				System.out.println("File does not exist.");
 		}
-
 	}
 
 	/**
-	 * untracks the file for the next commit if it was in the staging folder,
-	 * delete it
+	 * untracks the file for the next commit if it was in the staging area,
+	 * unstage it
 	 * 
 	 * @param fileName
 	 *            fileName to be untracked
 	 */
 	public void remove(String fileName)
 	{
-		// if file is not in staging folder
+		// if file is not in staging area
 		// or it's not tracked by head commit
 
-		if (!inStagingDir.contains(fileName) && !branches.get(currentBranch).getFiles().contains(fileName))
+		if (!index.isStaged(fileName) && branches.get(currentBranch).getBlobID(fileName) == null)
 		{
 			System.out.println("No reason to remove the file.");
 			return;
 		}
 
-		// if fileName is in staging folder
-		// remove it from staging folder
-		if (inStagingDir.contains(fileName))
+		// if fileName is in staging area
+		// remove it from staging area
+		if (index.isStaged(fileName))
 		{
-			unstageFile(STAGING_DIR, fileName);
-			inStagingDir.remove(fileName);
+			index.unstage(fileName);
 		}
 
-		// put it in untrack HashSet
-		else if (!untrack.contains(fileName))
+		// mark it for untracking
+		else if (!index.isMarkedRemoved(fileName))
 		{
-			untrack.add(fileName);
+			index.markRemoved(fileName);
 		}
 		else
 		{
@@ -272,51 +520,22 @@ public class Gitlet implements Serializable
 
 	}
 
-	/**
-	 * remove the file from the staging folder
-	 * 
-	 * @param currentDir
-	 *            path of the staging folder
-	 * @param fileName
-	 *            name of file to be removed
-	 */
-	private static void unstageFile(File currentDir, String fileName)
-	{
-		File file = new File(currentDir, fileName);
-		file.delete();
-	}
-
-	/**
-	 * helping method to copy files from source to dest
-	 * 
-	 * @param source
-	 *            path of the source of the file to be copied
-	 * @param dest
-	 *            path of the destination of where the file should by copied to
-	 * @throws IOException
-	 */
-	public static void copyFileUsingFileChannels(File source, File dest) throws IOException
-	{
-		FileChannel inputChannel = null;
-		FileChannel outputChannel = null;
-		inputChannel = new FileInputStream(source).getChannel();
-		outputChannel = new FileOutputStream(dest).getChannel();
-		outputChannel.transferFrom(inputChannel, 0, inputChannel.size());
-		inputChannel.close();
-		outputChannel.close();
-	}
-
 	/**
 	 * merge files from the given branch into the current branch; finds the
 	 * splitting point ( a commit ) which both the current branch and the given
 	 * branch shares as its previous node, and check each corresponding commit
 	 * after the splitting point for modified files in order to process the
-	 * modified files for the new merged commit
+	 * modified files for the new merged commit; text files modified by both
+	 * branches are merged line by line, and only conflict where both changed
+	 * the same lines
 	 * 
 	 * @param branchName
 	 *            branch name to merge files with from the current branch
+	 * @throws IOException
+	 *             if the merged files could not be written or the merge
+	 *             commit could not be stored
 	 */
-	public void merge(String branchName)
+	public void merge(String branchName) throws IOException
 	{
 		// check to see if branch exists
 		if (!branches.containsKey(branchName))
@@ -333,59 +552,108 @@ public class Gitlet implements Serializable
 
 		// modified for rebase
 		GitletNode splitPoint = getSplitPoint(currentBranch, branchName, false);
-		LinkedList<String> modifiedHere = branches.get(currentBranch).getModifiedFiles(splitPoint);
-		LinkedList<String> modifiedThere = branches.get(branchName).getModifiedFiles(splitPoint);
-		for (String s : modifiedThere)
-			if (!modifiedHere.contains(s))
-				addForMergeAndRebase(branches.get(branchName).getFile(s));
+		TreeMap<String, String> modifiedHere = branches.get(currentBranch).getModifiedFiles(splitPoint);
+		TreeMap<String, String> modifiedThere = branches.get(branchName).getModifiedFiles(splitPoint);
+		TreeMap<String, String> toWrite = new TreeMap<String, String>();
+		for (Map.Entry<String, String> change : modifiedThere.entrySet())
+		{
+			String s = change.getKey();
+			if (!modifiedHere.containsKey(s))
+			{
+				addForMergeAndRebase(s, change.getValue());
+				if (change.getValue() != null)
+					toWrite.put(s, change.getValue());
+			}
+			// both branches made the same change, so there is nothing to merge
+			else if (Objects.equals(modifiedHere.get(s), change.getValue()))
+				continue;
 			else
 			{
-				isConflicting = true;
-				File toStage = new File(".gitlet/staging/", s + ".conflicting");
-				try
-				{
-					toStage.createNewFile();
-					inStagingDir.add(s + ".conflicting");
-					copyFileUsingFileChannels(branches.get(branchName).getFile(s), toStage);
-				}
-				catch (IOException e)
+				String merged = mergeLines(s, splitPoint.getBlobID(s), modifiedHere.get(s), change.getValue(),
+						branchName, toWrite);
+				if (merged != null)
 				{
-					e.printStackTrace();
+					addForMergeAndRebase(s, merged);
+					toWrite.put(s, merged);
+					continue;
 				}
+				isConflicting = true;
+				if (change.getValue() != null)
+					index.stage(s + ".conflicting", change.getValue());
 			}
+		}
+		new WorkingTree().writeFiles(toWrite, objects, index);
+		// nothing is merged if the given branch is already in the history of
+		// the current one
 		if (!isConflicting)
-			commit("Merged " + currentBranch + " with " + branchName);
+			commit("Merged " + currentBranch + " with " + branchName,
+					splitPoint.equals(branches.get(branchName)) ? null : branches.get(branchName));
 	}
 
 	/**
-	 * Used for merge and rebase; adds the files to given branch name
+	 * Merges the changes both branches made to a file line by line, against
+	 * its version at the split point
 	 * 
-	 * @param branch
-	 *            given branch name
-	 * @param file
-	 *            the file to be added
+	 * @param fileName
+	 *            name of the file
+	 * @param base
+	 *            ID of the file's blob at the split point, or null if it was
+	 *            added by both branches
+	 * @param ours
+	 *            ID of the file's blob on the current branch, or null if it
+	 *            was removed there
+	 * @param theirs
+	 *            ID of the file's blob on the given branch, or null if it was
+	 *            removed there
+	 * @param branchName
+	 *            name of the given branch
+	 * @param toWrite
+	 *            files to write to the working directory; if the changes to a
+	 *            text file conflict, it gets the file with conflict markers
+	 *            around each conflict, for the user to resolve
+	 * @return ID of the blob of the merged file, or null if the changes
+	 *         conflict
+	 * @throws IOException
 	 */
-	private void addForMergeAndRebase(File file)
+	private String mergeLines(String fileName, String base, String ours, String theirs, String branchName,
+			Map<String, String> toWrite) throws IOException
 	{
-		try
-		{
-			String fileName = file.getPath().substring(file.getPath().toString().indexOf("/", 16) + 1);
-			File toStage = new File(STAGING_DIR, fileName);
-			toStage.getParentFile().mkdirs();
-			inStagingDir.add(fileName);
-			File toWorking = new File(fileName);
-			toWorking.mkdirs();
-			copyFileUsingFileChannels(file, toStage);
-			copyFileUsingFileChannels(file, toWorking);
-		}
-		catch (IOException e)
-		{}
+		if (ours == null || theirs == null)
+			return null;
+		byte[] baseContents = base == null ? new byte[0] : objects.read(base);
+		byte[] oursContents = objects.read(ours);
+		byte[] theirsContents = objects.read(theirs);
+		if (Lines.isBinary(baseContents) || Lines.isBinary(oursContents) || Lines.isBinary(theirsContents))
+			return null;
+		LineMerge merge = LineMerge.merge(baseContents, oursContents, theirsContents, currentBranch, branchName,
+				new MyersDiff());
+		String merged = objects.put(merge.getContents());
+		if (!merge.hasConflicts())
+			return merged;
+		toWrite.put(fileName, merged);
+		return null;
+	}
 
+	/**
+	 * Used for merge and rebase; stages the given version of a file. The
+	 * callers write the staged files to the working directory together once
+	 * they are all staged
+	 * 
+	 * @param fileName
+	 *            name of the file to be added
+	 * @param blobID
+	 *            ID of the version of the file to be added, or null if the
+	 *            file is removed
+	 */
+	private void addForMergeAndRebase(String fileName, String blobID)
+	{
+		index.stage(fileName, blobID);
 	}
 	
 	/**
-	 * Gets the commit that both the current branch and the given branch's head
-	 * commits have in common in both their histories
+	 * Gets the latest commit that both the current branch and the given
+	 * branch's head commits have in common in both their histories, following
+	 * both parents of merge commits
 	 * 
 	 * @param currentBranch
 	 *            current branch name
@@ -393,34 +661,36 @@ public class Gitlet implements Serializable
 	 *            given branch name
 	 * @param isRebasing
 	 *            if we are calling this for rebasing, if so, saves all the
-	 *            commits that was traversed
+	 *            commits to replay, latest first
 	 * @return split point commit of both branches's commit
 	 */
 	private GitletNode getSplitPoint(String currentBranch, String givenBranch, boolean isRebasing)
 	{
-		GitletNode currentBranchNode = branches.get(currentBranch);
-		GitletNode givenBranchNode = branches.get(givenBranch);
-		while (currentBranchNode != givenBranchNode)
+		GitletNode splitPoint = branches.get(currentBranch).getSplitPoint(branches.get(givenBranch));
+		// modified for rebase
+		if (isRebasing)
 		{
-			if (currentBranchNode.getID() < givenBranchNode.getID())
-				givenBranchNode = givenBranchNode.getPrevCommit();
-			else
-			{
-				// modified for rebase
-				if (isRebasing)
-					nodesToRebase.add(currentBranchNode);
-
-				currentBranchNode = currentBranchNode.getPrevCommit();
-			}
+			// every commit that is not in the history of the given branch,
+			// whichever parent it is reached through; merge commits are left
+			// out, since what they merged in is either in the given branch
+			// already or replayed from the commits it came from
+			for (GitletNode node : branches.get(currentBranch).getCommitsNotIn(branches.get(givenBranch)))
+				if (node.getMergedCommit() == null)
+					nodesToRebase.add(node);
 		}
-		return currentBranchNode;
+		return splitPoint;
 	}
 
 	/**
-	 * displays what branches current exist, * for the current branch, and what
-	 * files have been staged or marked for untracking
+	 * displays what branches current exist, * for the current branch, what
+	 * files have been staged or marked for untracking, what tracked files have
+	 * been changed in the working directory without being staged, and what
+	 * files in the working directory are not tracked at all
+	 * 
+	 * @throws IOException
+	 *             if a tracked file that exists could not be read
 	 */
-	public void status()
+	public void status() throws IOException
 	{
 		System.out.println("=== Branches ===");
 		System.out.println("*" + currentBranch);
@@ -432,17 +702,48 @@ public class Gitlet implements Serializable
 		System.out.println();
 
 		System.out.println("=== Staged Files ===");
-		for (File staged : STAGING_DIR.listFiles())
+		for (String staged : index.getStaged().keySet())
 		{
-			System.out.println(staged.getPath().substring(staged.getPath().toString().indexOf("/", 16) + 1));
+			System.out.println(staged);
 		}
 		System.out.println();
 
 		System.out.println("=== Files Marked for Untracking ===");
-		for (String untracked : untrack)
+		for (String untracked : index.getMarkedRemoved())
 		{
 			System.out.println(untracked);
 		}
+		System.out.println();
+
+		/*
+		 * compare what each tracked file should be (its staged version, or
+		 * else its version in the head commit) with what is in the working
+		 * directory; only files whose stat changed are actually read
+		 */
+		WorkingTree workingTree = new WorkingTree();
+		TreeSet<String> workingFiles = workingTree.listFiles();
+		TreeMap<String, String> expected = branches.get(currentBranch).getManifest();
+		expected.keySet().removeAll(index.getMarkedRemoved());
+		expected.putAll(index.getStaged());
+		HashMap<String, String> working = workingTree.hashFiles(expected.keySet(), index);
+
+		System.out.println("=== Modifications Not Staged For Commit ===");
+		for (Map.Entry<String, String> file : expected.entrySet())
+		{
+			String workingBlob = working.get(file.getKey());
+			if (workingBlob == null)
+				System.out.println(file.getKey() + " (deleted)");
+			else if (!workingBlob.equals(file.getValue()))
+				System.out.println(file.getKey() + " (modified)");
+		}
+		System.out.println();
+
+		System.out.println("=== Untracked Files ===");
+		for (String file : workingFiles)
+		{
+			if (!expected.containsKey(file))
+				System.out.println(file);
+		}
 	}
 
 	/**
@@ -491,8 +792,9 @@ public class Gitlet implements Serializable
 	/**
 	 * if the given name is a branch name, then it has priority over the file
 	 * name if this is the case, then takes all the files in the head commit of
-	 * the current branch and put them in the working directory, overwriting
-	 * preexisting files and sets the given branch as the current branch
+	 * the given branch and put them in the working directory, overwriting
+	 * preexisting files and sets the given branch as the current branch; only
+	 * files that differ between the two head commits are written or deleted
 	 * 
 	 * if file name does not match the branch name, then take the file as it
 	 * exists in the head commit of the current branch and put it in the working
@@ -512,33 +814,99 @@ public class Gitlet implements Serializable
 			}
 			else
 			{
-				GitletNode curr = branches.get(name);
-				for (String file : curr.getFiles())
-				{
-					File requestedFile = curr.getFile(file);
-					File toWorkingDir = new File(requestedFile.getName());
-					copyFileUsingFileChannels(requestedFile, toWorkingDir);
-				}
+				checkoutCommit(branches.get(currentBranch), branches.get(name));
 				currentBranch = name;
 			}
 		}
 		else
 		{
 			GitletNode curr = branches.get(currentBranch);
-			File toWorkingDir = new File(name);
-			File requestedFile = curr.getFile(name);
+			String requestedFile = curr.getBlobID(name);
 			if (requestedFile == null)
 			{
 				System.out.println("File does not exist in the most recent commit, or no such branch exists.");
 			}
 			else
 			{
-				copyFileUsingFileChannels(requestedFile, toWorkingDir);
+				writeToWorkingDir(name, requestedFile);
 			}
 		}
 
 	}
 
+	/**
+	 * writes the given version of a file to the working directory, and records
+	 * its stat in index so it does not have to be read again to know its
+	 * contents
+	 * 
+	 * @param fileName
+	 *            name of the file in the working directory
+	 * @param blobID
+	 *            ID of the version of the file to write
+	 * @throws IOException
+	 */
+	private void writeToWorkingDir(String fileName, String blobID) throws IOException
+	{
+		File file = new File(fileName);
+		objects.copyTo(blobID, file);
+		index.update(fileName, file, blobID);
+	}
+
+	/**
+	 * changes the working directory from the files of one commit to the files
+	 * of another; files that are the same in both commits are not touched, and
+	 * neither are files that index shows already have the right contents. The
+	 * rest are written in parallel. A file that is not in the other commit is
+	 * deleted only if it still has its contents in the first one, so changes
+	 * that were never committed are left in the working directory.
+	 * 
+	 * @param from
+	 *            commit whose files are in the working directory
+	 * @param to
+	 *            commit whose files should be in the working directory
+	 * @throws IOException
+	 */
+	private void checkoutCommit(GitletNode from, GitletNode to) throws IOException
+	{
+		TreeMap<String, String> toWrite = new TreeMap<String, String>();
+		ArrayList<String> toDelete = new ArrayList<String>();
+		for (Map.Entry<String, String> change : from.getTree().diff(to.getTree()).entrySet())
+		{
+			String fileName = change.getKey();
+			if (change.getValue() == null)
+				toDelete.add(fileName);
+			else if (!change.getValue().equals(index.getBlobID(fileName, new File(fileName))))
+				toWrite.put(fileName, change.getValue());
+		}
+		HashMap<String, String> current = new WorkingTree().hashFiles(toDelete, index);
+		for (String fileName : toDelete)
+		{
+			String blobID = current.get(fileName);
+			if (blobID == null || blobID.equals(from.getBlobID(fileName)))
+				deleteFromWorkingDir(fileName);
+			else
+				index.remove(fileName);
+		}
+		new WorkingTree().writeFiles(toWrite, objects, index);
+	}
+
+	/**
+	 * deletes a file from the working directory, along with any directories
+	 * that are left empty
+	 * 
+	 * @param fileName
+	 *            name of the file in the working directory
+	 */
+	private void deleteFromWorkingDir(String fileName)
+	{
+		File file = new File(fileName);
+		file.delete();
+		index.remove(fileName);
+		// delete fails on directories that still have files in them
+		for (File dir = file.getParentFile(); dir != null && dir.delete(); dir = dir.getParentFile())
+			;
+	}
+
 	/**
 	 * takes the version of each files as it exists in the given commit with the
 	 * commit id and puts them in the working directory, overwriting files that
@@ -552,29 +920,30 @@ public class Gitlet implements Serializable
 	 */
 	public void checkout(String id, String name) throws IOException
 	{
-		GitletNode curr = tableOfCommitID.get(id);
-		File toWorkingDir = new File(name);
+		GitletNode curr = commitStore.get(id);
 		if (curr == null)
 		{
 			System.out.println("No commit with that id exists.");
 		}
 		else
 		{
-			File requestedFile = curr.getFile(name);
+			String requestedFile = curr.getBlobID(name);
 			if (requestedFile == null)
 			{
 				System.out.println("File does not exist in the most recent commit, or no such branch exists.");
 			}
 			else
 			{
-				copyFileUsingFileChannels(requestedFile, toWorkingDir);
+				writeToWorkingDir(name, requestedFile);
 			}
 		}
 	}
 
 	/**
 	 * checks out all the files tracked by the commit corresponding to the given
-	 * commit ID and set the current branch's head to point to that commit node
+	 * commit ID and set the current branch's head to point to that commit node;
+	 * only files that differ from the current head commit are written or
+	 * deleted
 	 * 
 	 * @param commitID
 	 *            to find the corresponding commit node
@@ -584,21 +953,16 @@ public class Gitlet implements Serializable
 	 */
 	public void reset(String commitID) throws IOException
 	{
-		if (!tableOfCommitID.containsKey(commitID))
+		// corresponding commit node of the given commit ID
+		GitletNode toReset = commitStore.get(commitID);
+		if (toReset == null)
 		{
 			System.out.println("No commit with that id exists.");
 			return;
 		}
 
-		// corresponding commit node of the given commit ID
-		GitletNode toReset = tableOfCommitID.get(commitID);
-
-		// need to get contents of node
-		// then check out each file tracked by the node
-		for (String fileName : toReset.getFiles())
-		{
-			checkout(commitID, fileName);
-		}
+		// check out each file that is different in node
+		checkoutCommit(branches.get(currentBranch), toReset);
 
 		// then move current branch's head to point to node
 		branches.put(currentBranch, toReset);
@@ -610,8 +974,9 @@ public class Gitlet implements Serializable
 	 * rebase the current branch to the given branch by getting the history
 	 * commits of the current branch until the splitting point of current branch
 	 * and given branch, then replay the history commits of the current branch
-	 * to the given branch at the head of the given branch by the process of
-	 * committing new commits
+	 * to the given branch at the head of the given branch; the replayed
+	 * commits are built in memory and written together, and the working
+	 * directory is only written once they are all made
 	 * 
 	 * @param branchName
 	 *            branch name for the current branch to rebase to
@@ -641,6 +1006,7 @@ public class Gitlet implements Serializable
 		GitletNode splitPoint = getSplitPoint(currentBranch, branchName, true);
 		if (splitPoint.equals(givenBranchHead))
 		{
+			nodesToRebase.clear();
 			System.out.println("Already up-to-date.");
 			return;
 		}
@@ -649,41 +1015,161 @@ public class Gitlet implements Serializable
 		// just move current branch to point to give branch's commit
 		if (splitPoint.equals(currentBranchHead))
 		{
+			nodesToRebase.clear();
 			branches.put(currentBranch, givenBranchHead);
+			checkoutCommit(currentBranchHead, givenBranchHead);
 			return;
 		}
 
-		// get modified files of currentBranchHead
-		// to propagate the modified files
-
-		branches.put(currentBranch, givenBranchHead);
-		LinkedList<String> toPropagate = givenBranchHead.getModifiedFiles(splitPoint);
+		/*
+		 * replay each commit on top of the given branch in memory: the files
+		 * it changed from its previous commit are set in a copy of the
+		 * previous replayed commit, so the changes of the given branch carry
+		 * through every file it did not change; only directories with
+		 * changed files are copied
+		 */
+		ArrayList<GitletNode> replayed = new ArrayList<GitletNode>(nodesToRebase.size());
+		GitletNode replayedHead = givenBranchHead;
 		while (!nodesToRebase.isEmpty())
 		{
-			// next node to be rebase
 			GitletNode nextToRebase = nodesToRebase.pop();
+			replayedHead = new GitletNode(nextToRebase.getMessage(), numberOfCommit + replayed.size(), replayedHead);
+			replayedHead.update(nextToRebase.getModifiedFiles(nextToRebase.getPrevCommit()));
+			replayed.add(replayedHead);
+		}
+
+		// then write the whole chain at once, and only then move the branch
+		commitStore.addAll(replayed);
+		numberOfCommit += replayed.size();
+		branches.put(currentBranch, replayedHead);
 
-			// add files from node to the staging directory
-			for (String fileName : nextToRebase.getFiles())
-				if (new File(nextToRebase.getFolder(), fileName).exists())
-					addForMergeAndRebase(currentBranchHead.getFile(fileName));
+		// finally, check out the front of the replayed branch over what was
+		// checked out before the rebase, writing only the files that differ
+		checkoutCommit(currentBranchHead, replayedHead);
+	}
 
-			//propagate files
-			for (String fileName : toPropagate)
+	/**
+	 * prints the changes to each file between two commits, or between a
+	 * commit and the working directory, as a unified diff. Files whose blob
+	 * IDs are the same on both sides are not read, and neither are working
+	 * files that the index knows to be unchanged.
+	 * 
+	 * @param args
+	 *            --histogram or --myers to pick the diff algorithm, Myers' by
+	 *            default; then up to two commit IDs, and then paths of files
+	 *            or directories to limit the diff to, after -- if they look
+	 *            like commit IDs. With no commit ID the working directory is
+	 *            compared with the head of the current branch, with one it is
+	 *            compared with that commit, and with two the first commit is
+	 *            compared with the second.
+	 */
+	public void diff(String... args)
+	{
+		DiffAlgorithm algorithm = new MyersDiff();
+		ArrayList<GitletNode> commits = new ArrayList<GitletNode>();
+		ArrayList<String> paths = new ArrayList<String>();
+		boolean onlyPaths = false;
+		for (String arg : args)
+		{
+			if (onlyPaths)
+				paths.add(arg);
+			else if (arg.equals("--"))
+				onlyPaths = true;
+			else if (arg.equals("--histogram"))
+				algorithm = new HistogramDiff();
+			else if (arg.equals("--myers"))
+				algorithm = new MyersDiff();
+			else if (paths.isEmpty() && commits.size() < 2 && arg.matches("\\d+"))
 			{
-				if (!inStagingDir.contains(fileName))
-					addForMergeAndRebase(givenBranchHead.getFile(fileName));
-				else
-					toPropagate.remove(fileName);
+				GitletNode commit = commitStore.get(arg);
+				if (commit == null)
+				{
+					System.out.println("No commit with that id exists.");
+					return;
+				}
+				commits.add(commit);
 			}
-
-			// commit
-			commit(nextToRebase.getMessage());
+			else
+				paths.add(arg.endsWith("/") ? arg.substring(0, arg.length() - 1) : arg);
+		}
+		GitletNode from = commits.isEmpty() ? branches.get(currentBranch) : commits.get(0);
+		TextDiff printer = new TextDiff(algorithm, System.out);
+		try
+		{
+			if (commits.size() == 2)
+			{
+				for (Map.Entry<String, String> change : from.getTree().diff(commits.get(1).getTree()).entrySet())
+					if (isInPaths(change.getKey(), paths))
+						printer.print(change.getKey(), from.getBlobID(change.getKey()), change.getValue(), objects);
+				return;
+			}
+			// the working directory has the files of the commit, and the
+			// files staged since
+			TreeMap<String, String> manifest = from.getManifest();
+			TreeSet<String> tracked = new TreeSet<String>();
+			for (String path : manifest.keySet())
+				if (isInPaths(path, paths))
+					tracked.add(path);
+			for (String path : index.getStaged().keySet())
+				if (isInPaths(path, paths))
+					tracked.add(path);
+			HashMap<String, String> working = new WorkingTree().hashFiles(tracked, index);
+			for (String path : tracked)
+			{
+				String before = manifest.get(path);
+				String after = working.get(path);
+				if (Objects.equals(before, after))
+					continue;
+				printer.print(path, before == null ? null : objects.read(before),
+						after == null ? null : Files.readAllBytes(new File(path).toPath()));
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
 		}
+	}
 
-		// finally, reset to node at the front of the replayed branch, which
-		// should be the latest commit ID
-		reset(Integer.toString(numberOfCommit - 1));
+	/**
+	 * @return true if paths is empty, or if path is one of paths or is in a
+	 *         directory that is
+	 */
+	private static boolean isInPaths(String path, List<String> paths)
+	{
+		if (paths.isEmpty())
+			return true;
+		for (String limit : paths)
+			if (path.equals(limit) || path.startsWith(limit + "/"))
+				return true;
+		return false;
+	}
+
+	/**
+	 * rolls all of the loose objects, one file per stored file version and
+	 * directory tree, into a single pack file so that the number of files in
+	 * .gitlet stays small no matter how long the history gets; each version
+	 * of a file is packed as a delta from the one committed before it where
+	 * that saves space
+	 */
+	public void gc()
+	{
+		// key is the name of a file, value is its versions, oldest first
+		HashMap<String, List<String>> histories = new HashMap<String, List<String>>();
+		for (int i = 0; i < numberOfCommit; i++)
+			for (Map.Entry<String, String> file : commitStore.get(i).getBlobs().entrySet())
+			{
+				if (!histories.containsKey(file.getKey()))
+					histories.put(file.getKey(), new ArrayList<String>());
+				histories.get(file.getKey()).add(file.getValue());
+			}
+		try
+		{
+			objects.repack(histories.values());
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
 	}
 
 	/*****************************************************************************/
@@ -696,14 +1182,14 @@ public class Gitlet implements Serializable
 		return branches;
 	}
 
-	public HashMap<String, LinkedList<GitletNode>> getCommits()
+	public Set<String> getUntrack()
 	{
-		return commits;
+		return index.getMarkedRemoved();
 	}
 
-	public HashSet<String> getUntrack()
+	public ObjectStore getObjectStore()
 	{
-		return untrack;
+		return objects;
 	}
 	public String getCurrentBranch()
 	{
@@ -713,18 +1199,53 @@ public class Gitlet implements Serializable
 	/*****************************************************************************/
 	public static void main(String[] args)
 	{
-		Gitlet gitlet = null;
-		try
+		if (args.length > 0 && args[0].equals("daemon"))
 		{
-			FileInputStream fileIn = new FileInputStream(new File(".gitlet", "Gitlet.ser"));
-			ObjectInputStream in = new ObjectInputStream(fileIn);
-			gitlet = (Gitlet) in.readObject();
-			in.close();
-			fileIn.close();
+			new Daemon().serve();
+			return;
 		}
-		catch (Exception e)
-		{}
+		// a running daemon already has the repository loaded
+		if (Daemon.forward(args))
+			return;
+
+		if (!new File(".gitlet").exists())
+			run(null, args);
+		else if (isReadOnly(args))
+			run(new Gitlet(true), args);
+		else
+			try
+			{
+				FileChannel lock = lock();
+				try
+				{
+					run(new Gitlet(), args);
+				}
+				finally
+				{
+					lock.close();
+				}
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+	}
 
+	/**
+	 * runs one command and saves what it changed, unless the command only
+	 * reads the repository; a command that changes the repository is run
+	 * holding the lock
+	 * 
+	 * @param gitlet
+	 *            the repository, or null if there is none yet
+	 * @param args
+	 *            the command and its arguments
+	 * @return the repository, which is new if the command was init, or null
+	 *         if the command failed partway and nothing it did was saved, so
+	 *         the repository has to be loaded again
+	 */
+	static Gitlet run(Gitlet gitlet, String[] args)
+	{
 		if (args.length == 0)
 			System.out.println("Please enter a command.");
 		else if (args[0].equals("commit"))
@@ -732,7 +1253,16 @@ public class Gitlet implements Serializable
 
 			if (args.length == 2 && args[1].trim().length() != 0)
 			{
-				gitlet.commit(args[1]);
+				try
+				{
+					gitlet.commit(args[1]);
+				}
+				catch (IOException e)
+				{
+					// the command stopped partway, so none of it is saved
+					e.printStackTrace();
+					return null;
+				}
 			}
 			else
 			{
@@ -741,7 +1271,16 @@ public class Gitlet implements Serializable
 
 		}
 		else if (args[0].equals("add"))
-			gitlet.add(args[1]);
+			try
+			{
+				gitlet.add(Arrays.copyOfRange(args, 1, args.length));
+			}
+			catch (IOException e)
+			{
+				// the command stopped partway, so none of it is saved
+				e.printStackTrace();
+				return null;
+			}
 		else if (args[0].equals("rm"))
 			gitlet.remove(args[1]);
 		else if (args[0].equals("log"))
@@ -754,11 +1293,28 @@ public class Gitlet implements Serializable
 				System.out.println("A gitlet version control system already exists in the current directory.");
 		}
 		else if (args[0].equals("merge"))
-			gitlet.merge(args[1]);
+			try
+			{
+				gitlet.merge(args[1]);
+			}
+			catch (IOException e)
+			{
+				// the command stopped partway, so none of it is saved
+				e.printStackTrace();
+				return null;
+			}
 		else if (args[0].equals("branch"))
 			gitlet.branch(args[1]);
 		else if (args[0].equals("status"))
-			gitlet.status();
+			try
+			{
+				gitlet.status();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				return null;
+			}
 		else if (args[0].equals("rm-branch"))
 			gitlet.removeBranch(args[1]);
 		else if (args[0].equals("find"))
@@ -773,7 +1329,9 @@ public class Gitlet implements Serializable
 				}
 				catch (IOException e)
 				{
+					// the command stopped partway, so none of it is saved
 					e.printStackTrace();
+					return null;
 				}
 			}
 			else if (args.length == 3)
@@ -784,7 +1342,9 @@ public class Gitlet implements Serializable
 				}
 				catch (IOException e)
 				{
+					// the command stopped partway, so none of it is saved
 					e.printStackTrace();
+					return null;
 				}
 			}
 		}
@@ -794,37 +1354,45 @@ public class Gitlet implements Serializable
 			{
 				gitlet.rebase(args[1]);
 			}
-			catch (IOException e1)
+			catch (IOException e)
 			{
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+				// the command stopped partway, so none of it is saved
+				e.printStackTrace();
+				return null;
 			}
 		}
 		else if (args[0].equals("global-log"))
 			gitlet.global_log();
+		else if (args[0].equals("diff"))
+			gitlet.diff(Arrays.copyOfRange(args, 1, args.length));
+		else if (args[0].equals("gc") || args[0].equals("repack"))
+			gitlet.gc();
 		else if (args[0].equals("reset"))
 			try
 			{
 				gitlet.reset(args[1]);
 			}
-			catch (IOException e1)
+			catch (IOException e)
 			{
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+				// the command stopped partway, so none of it is saved
+				e.printStackTrace();
+				return null;
 			}
+		else if (args[0].equals("daemon-stop"))
+			System.out.println("No gitlet daemon is running.");
 		else
 			System.out.println("No command with that name exists.");
 		try
 		{
-			FileOutputStream fileOut = new FileOutputStream(new File(".gitlet", "Gitlet.ser"));
-			ObjectOutputStream out = new ObjectOutputStream(fileOut);
-			out.writeObject(gitlet);
-			out.close();
-			fileOut.close();
+			if (gitlet != null && !isReadOnly(args))
+				gitlet.save();
+			else if (gitlet != null && gitlet.isSnapshot())
+				gitlet.saveIfUnlocked();
 		}
 		catch (IOException e)
 		{
 			e.printStackTrace();
 		}
+		return gitlet;
 	}
 }
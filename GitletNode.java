@@ -2,59 +2,237 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 import java.io.*;
 
-public class GitletNode implements Serializable
+public class GitletNode
 {
-	private GitletNode			prevCommit;	// previous commit node. null
+	// which of two commits a commit was reached from, when walking back their
+	// histories
+	private static final int					FROM_THIS	= 1;
+	private static final int					FROM_OTHER	= 2;
+	// orders commits latest generation first, so every commit comes before
+	// its parents
+	private static final Comparator<GitletNode>	LATEST_FIRST	= new Comparator<GitletNode>()
+	{
+		public int compare(GitletNode a, GitletNode b)
+		{
+			if (a.generation != b.generation)
+				return Integer.compare(b.generation, a.generation);
+			return Integer.compare(b.commitID, a.commitID);
+		}
+	};
+
+	private int					prevID;		// ID of previous commit node. -1
 												// for first commit
+	private CommitStore			store;		// where the previous commit
+												// node is looked up
+	private int					mergeID;	// ID of the commit merged into
+												// this one, -1 if it is not a
+												// merge commit
+	private int					generation;	// 0 for first commit, else one
+												// more than its parents' highest
+	private int					depth;		// number of previous commits
+												// before this one
+	// ancestor to skip to when walking back further than the previous commit;
+	// the skips form a skew-binary skip list over previous commits, so any of
+	// them is reached in a logarithmic number of steps
+	private int					jumpID;
+	private int					jumpDepth;
+	private GitletNode			jump;		// the commit jumpID names, until
+												// this one is in a store it
+												// can be looked up in
+	// depth of the latest merge commit among this one and its previous
+	// commits, -1 if there is none
+	private int					mergeDepth;
 	private String				commitMessage;
 	private String				timeStamp;
 	private int					commitID;
-	private File				folder;
-	private ArrayList<String>	nameOfFiles;	// names of all of the files in
-												// this commit,
-												// including the ones not
-												// written to the folder
+	// every file in this commit, including the ones not changed by it,
+	// sharing unchanged directories with the previous commit
+	private Tree					tree;
+	// the files of tree that were changed by this commit
+	// key is the name of the file
+	// value is the ID of its contents in the ObjectStore
+	private HashMap<String, String>	blobs;
 
 	/**
-	 * Constructs a new GitletNode, keeping track of all its files
+	 * Constructs a new GitletNode, keeping track of all its files. It starts
+	 * out with the same files as prev.
 	 * @param message - the commit message
 	 * @param ID - the commit ID
 	 * @param prev - the previous/parent GitletNode
 	 */
 	public GitletNode(String message, int ID, GitletNode prev)
 	{
-		prevCommit = prev;
+		this(message, ID, prev, null);
+	}
+
+	/**
+	 * Constructs a new GitletNode with two parents, keeping track of all its
+	 * files. It starts out with the same files as prev.
+	 * @param message - the commit message
+	 * @param ID - the commit ID
+	 * @param prev - the previous/parent GitletNode
+	 * @param merged - the GitletNode merged into prev, or null if this is not
+	 *            a merge commit
+	 */
+	public GitletNode(String message, int ID, GitletNode prev, GitletNode merged)
+	{
+		this(message, getTimeStamp(), ID, prev == null ? -1 : prev.getID());
+		if (prev != null)
+		{
+			tree = prev.tree;
+			generation = prev.generation + 1;
+			depth = prev.depth + 1;
+			mergeDepth = prev.mergeDepth;
+			// skip twice as far as prev does if prev's skip and its skip's
+			// skip are the same length, or else just to prev
+			GitletNode prevJump = prev.jumpID == prev.commitID ? prev : prev.getJump();
+			if (prevJump != null && prev.depth - prev.jumpDepth == prev.jumpDepth - prevJump.jumpDepth)
+			{
+				jumpID = prevJump.jumpID;
+				jumpDepth = prevJump.jumpDepth;
+				jump = jumpID == prev.commitID ? prev : prevJump.getJump();
+			}
+			else
+			{
+				jumpID = prev.commitID;
+				jumpDepth = prev.depth;
+				jump = prev;
+			}
+		}
+		if (merged != null)
+		{
+			mergeID = merged.getID();
+			generation = Math.max(generation, merged.generation + 1);
+			mergeDepth = depth;
+		}
+	}
+
+	private GitletNode(String message, String time, int ID, int prev)
+	{
+		prevID = prev;
+		mergeID = -1;
+		jumpID = ID;
+		mergeDepth = -1;
 		commitMessage = message;
-		timeStamp = getTimeStamp();
+		timeStamp = time;
 		commitID = ID;
-		nameOfFiles = new ArrayList<String>();
-		folder = new File(".gitlet/commits/" + commitID);
-		folder.mkdir();
+		tree = new Tree();
+		blobs = new HashMap<String, String>();
+	}
+
+	/**
+	 * Writes this commit's record, and the directories of its tree that are
+	 * not stored yet
+	 * 
+	 * @param out
+	 *            stream to write the record to
+	 * @param objects
+	 *            ObjectStore to write the tree to
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out, ObjectStore objects) throws IOException
+	{
+		out.writeInt(commitID);
+		out.writeInt(prevID);
+		out.writeInt(mergeID);
+		out.writeInt(generation);
+		out.writeInt(depth);
+		out.writeInt(jumpID);
+		out.writeInt(jumpDepth);
+		out.writeInt(mergeDepth);
+		out.writeUTF(commitMessage);
+		out.writeUTF(timeStamp);
+		out.writeUTF(tree.write(objects));
+		out.writeInt(blobs.size());
+		for (Map.Entry<String, String> blob : blobs.entrySet())
+		{
+			out.writeUTF(blob.getKey());
+			out.writeUTF(blob.getValue());
+		}
+	}
+
+	/**
+	 * Reads a commit record written by write
+	 * 
+	 * @param in
+	 *            stream to read the record from
+	 * @param store
+	 *            store to look the previous commit and the tree up in
+	 * @return the commit
+	 * @throws IOException
+	 */
+	public static GitletNode read(DataInputStream in, CommitStore store) throws IOException
+	{
+		int ID = in.readInt();
+		int prev = in.readInt();
+		int merged = in.readInt();
+		int generation = in.readInt();
+		int depth = in.readInt();
+		int jumpID = in.readInt();
+		int jumpDepth = in.readInt();
+		int mergeDepth = in.readInt();
+		String message = in.readUTF();
+		GitletNode node = new GitletNode(message, in.readUTF(), ID, prev);
+		node.mergeID = merged;
+		node.generation = generation;
+		node.depth = depth;
+		node.jumpID = jumpID;
+		node.jumpDepth = jumpDepth;
+		node.mergeDepth = mergeDepth;
+		node.store = store;
+		node.tree = Tree.read(in.readUTF(), store.getObjectStore());
+		for (int i = in.readInt(); i > 0; i--)
+			node.blobs.put(in.readUTF(), in.readUTF());
+		return node;
+	}
+
+	/**
+	 * Sets the store this commit's previous commit is looked up in. Commits
+	 * it skips back to are looked up there from then on too, instead of
+	 * being held on to, so the store is free to forget them.
+	 * 
+	 * @param commits
+	 *            the CommitStore holding this commit
+	 */
+	void setStore(CommitStore commits)
+	{
+		store = commits;
+		jump = null;
 	}
 
 	/**
 	 * Gets the current time stamp upon call
 	 * @return - String format of the commit Date
 	 */
-	public String getTimeStamp()
+	public static String getTimeStamp()
 	{
 		return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
 	}
 
 	/**
 	 * Prints out the log of the GitletNode, printing out the commit ID, message
-	 * and recursively calls its parent node. Used in log, not global log!
+	 * and then those of every commit in its history, through both parents of
+	 * merge commits, latest generation first. Walks the history in a loop so
+	 * that the depth of the history does not matter. Used in log, not global
+	 * log!
 	 */
 	public void printLog()
 	{
-		System.out.println("===");
-		System.out.println("Commit " + commitID);
-		System.out.println(timeStamp);
-		System.out.println(commitMessage);
-		if (prevCommit != null)
+		PriorityQueue<GitletNode> queue = new PriorityQueue<GitletNode>(LATEST_FIRST);
+		HashSet<Integer> seen = new HashSet<Integer>();
+		queue.add(this);
+		seen.add(commitID);
+		boolean first = true;
+		while (!queue.isEmpty())
 		{
-			System.out.println();
-			prevCommit.printLog();
+			GitletNode current = queue.poll();
+			if (!first)
+				System.out.println();
+			current.print();
+			first = false;
+			for (GitletNode parent : current.getParents())
+				if (seen.add(parent.commitID))
+					queue.add(parent);
 		}
 	}
 
@@ -66,6 +244,8 @@ public class GitletNode implements Serializable
 	{
 		System.out.println("===");
 		System.out.println("Commit " + commitID);
+		if (mergeID >= 0)
+			System.out.println("Merge: " + prevID + " " + mergeID);
 		System.out.println(timeStamp);
 		System.out.println(commitMessage);
 	}
@@ -76,9 +256,220 @@ public class GitletNode implements Serializable
 	 */
 	public GitletNode getPrevCommit()
 	{
-		return prevCommit;
+		if (prevID < 0)
+			return null;
+		return store.get(prevID);
 	}
-	
+
+	/**
+	 * Gets the commit merged into this one
+	 * @return - GitletNode of the merged commit, null if this is not a merge
+	 *         commit
+	 */
+	public GitletNode getMergedCommit()
+	{
+		if (mergeID < 0)
+			return null;
+		return store.get(mergeID);
+	}
+
+	/**
+	 * @return the previous commit and, for a merge commit, the merged commit
+	 */
+	public List<GitletNode> getParents()
+	{
+		ArrayList<GitletNode> parents = new ArrayList<GitletNode>(2);
+		if (prevID >= 0)
+			parents.add(getPrevCommit());
+		if (mergeID >= 0)
+			parents.add(getMergedCommit());
+		return parents;
+	}
+
+	/**
+	 * @return the commit this one skips back to, or null if it cannot be
+	 *         looked up
+	 */
+	private GitletNode getJump()
+	{
+		if (jump != null)
+			return jump;
+		return store == null ? null : store.get(jumpID);
+	}
+
+	/**
+	 * @return 0 for the first commit, else one more than the highest
+	 *         generation of this commit's parents
+	 */
+	public int getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * @return number of previous commits before this one, 0 for the first
+	 *         commit
+	 */
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * Gets the previous commit, or its previous commit and so on, with the
+	 * given depth, skipping back as far as possible at each step
+	 * 
+	 * @param target
+	 *            depth of the ancestor, at most this commit's depth
+	 * @return the ancestor
+	 */
+	public GitletNode getAncestor(int target)
+	{
+		GitletNode current = this;
+		while (current.depth > target)
+			if (current.jumpDepth >= target && current.jumpID != current.commitID)
+				current = current.getJump();
+			else
+				current = current.getPrevCommit();
+		return current;
+	}
+
+	/**
+	 * Gets the latest commit that is in the history of both this commit and
+	 * other. When there is no merge commit among the previous commits of
+	 * either of them after the split point of their previous commits, that is
+	 * the split point, and it is found in a logarithmic number of steps.
+	 * Otherwise their histories are walked back through both parents of merge
+	 * commits, latest generation first, until a commit is reached from both,
+	 * so only commits of later generation than the split point are read.
+	 * 
+	 * @param other
+	 *            the other commit
+	 * @return the split point of the two commits
+	 */
+	public GitletNode getSplitPoint(GitletNode other)
+	{
+		GitletNode split = getPrevSplitPoint(other);
+		if (mergeDepth <= split.depth && other.mergeDepth <= split.depth)
+			return split;
+		return getMergeSplitPoint(other);
+	}
+
+	/**
+	 * Gets the latest commit that both this commit and other reach through
+	 * previous commits alone: both are first brought back to the same depth,
+	 * then walked back together, skipping whenever their skips do not land on
+	 * the same commit
+	 */
+	private GitletNode getPrevSplitPoint(GitletNode other)
+	{
+		GitletNode a = getAncestor(Math.min(depth, other.depth));
+		GitletNode b = other.getAncestor(a.depth);
+		while (!a.equals(b))
+		{
+			// commits of the same depth skip to the same depth
+			if (a.jumpID != b.jumpID)
+			{
+				a = a.getJump();
+				b = b.getJump();
+			}
+			else
+			{
+				a = a.getPrevCommit();
+				b = b.getPrevCommit();
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * Walks back the histories of this commit and other latest generation
+	 * first, marking each commit with which of the two it was reached from.
+	 * Every commit comes after its parents, so the first commit reached from
+	 * both is the latest one in both histories.
+	 */
+	private GitletNode getMergeSplitPoint(GitletNode other)
+	{
+		// key is the ID of a commit, value is which of FROM_THIS and
+		// FROM_OTHER it was reached from
+		HashMap<Integer, Integer> reached = new HashMap<Integer, Integer>();
+		PriorityQueue<GitletNode> queue = new PriorityQueue<GitletNode>(LATEST_FIRST);
+		reached.put(commitID, FROM_THIS);
+		queue.add(this);
+		if (equals(other))
+			return this;
+		reached.put(other.commitID, FROM_OTHER);
+		queue.add(other);
+		while (!queue.isEmpty())
+		{
+			GitletNode current = queue.poll();
+			int from = reached.get(current.commitID);
+			if (from == (FROM_THIS | FROM_OTHER))
+				return current;
+			for (GitletNode parent : current.getParents())
+			{
+				// a parent is of an earlier generation, so if it was reached
+				// before it is still in the queue
+				Integer parentFrom = reached.get(parent.commitID);
+				if (parentFrom == null)
+					queue.add(parent);
+				reached.put(parent.commitID, parentFrom == null ? from : parentFrom | from);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets every commit in the history of this commit, through both parents of
+	 * merge commits, that is not in the history of other. Both histories are
+	 * walked back latest generation first, as in getMergeSplitPoint, so a
+	 * commit has been reached from all of its children by the time it is
+	 * taken from the queue, and the walk stops once every commit left in the
+	 * queue is in the history of other.
+	 * 
+	 * @param other
+	 *            the other commit
+	 * @return the commits, latest generation first
+	 */
+	public List<GitletNode> getCommitsNotIn(GitletNode other)
+	{
+		ArrayList<GitletNode> commits = new ArrayList<GitletNode>();
+		if (equals(other))
+			return commits;
+		HashMap<Integer, Integer> reached = new HashMap<Integer, Integer>();
+		PriorityQueue<GitletNode> queue = new PriorityQueue<GitletNode>(LATEST_FIRST);
+		reached.put(commitID, FROM_THIS);
+		queue.add(this);
+		reached.put(other.commitID, FROM_OTHER);
+		queue.add(other);
+		// number of commits in the queue reached only from this one
+		int onlyFromThis = 1;
+		while (onlyFromThis > 0)
+		{
+			GitletNode current = queue.poll();
+			int from = reached.get(current.commitID);
+			if (from == FROM_THIS)
+			{
+				commits.add(current);
+				onlyFromThis--;
+			}
+			for (GitletNode parent : current.getParents())
+			{
+				Integer parentFrom = reached.get(parent.commitID);
+				if (parentFrom == null)
+				{
+					queue.add(parent);
+					if (from == FROM_THIS)
+						onlyFromThis++;
+				}
+				else if (parentFrom == FROM_THIS && from != FROM_THIS)
+					onlyFromThis--;
+				reached.put(parent.commitID, parentFrom == null ? from : parentFrom | from);
+			}
+		}
+		return commits;
+	}
+
 	/**
 	 * Gets the commit ID of the respective commit
 	 * @return - int of the commit ID
@@ -88,6 +479,20 @@ public class GitletNode implements Serializable
 		return commitID;
 	}
 	
+	/**
+	 * Two GitletNodes are the same commit if they have the same commit ID, even
+	 * if the CommitStore has read the commit from disk more than once
+	 */
+	public boolean equals(Object obj)
+	{
+		return obj instanceof GitletNode && ((GitletNode) obj).commitID == commitID;
+	}
+
+	public int hashCode()
+	{
+		return commitID;
+	}
+
 	/**
 	 * Gets the commit message of the respective commit
 	 * @return - String of commit message
@@ -97,93 +502,118 @@ public class GitletNode implements Serializable
 		return commitMessage;
 	}
 	/**
-	 * @return list of all files associated with this commit
+	 * @return names of all files associated with this commit, in order
+	 */
+	public Set<String> getFiles()
+	{
+		return tree.getManifest().keySet();
+	}
+
+	/**
+	 * @return map of the names of all files associated with this commit to
+	 *         their blob IDs, in order
+	 */
+	public TreeMap<String, String> getManifest()
+	{
+		return tree.getManifest();
+	}
+
+	/**
+	 * @return the tree of files of this commit
+	 */
+	public Tree getTree()
+	{
+		return tree;
+	}
+
+	/**
+	 * Records the contents of a file changed by this commit, adding it to the
+	 * manifest of files
+	 * 
+	 * @param fileName
+	 *            Name of the file
+	 * @param blobID
+	 *            ID of the file's contents in the ObjectStore
 	 */
-	public ArrayList<String> getFiles()
+	public void addBlob(String fileName, String blobID)
 	{
-		return nameOfFiles;
+		tree = tree.with(fileName, blobID);
+		blobs.put(fileName, blobID);
 	}
 
 	/**
-	 * Add file name to the list of files.
+	 * Removes a file from the manifest of files, so it is not in this commit
 	 * 
 	 * @param fileName
-	 *            Name of file to add
+	 *            Name of the file
 	 */
-	public void addFile(String fileName)
+	public void removeFile(String fileName)
 	{
-		nameOfFiles.add(fileName);
+		tree = tree.without(fileName);
+		blobs.remove(fileName);
 	}
 
 	/**
-	 * @return File of the folder of this commit
+	 * Records the contents of every file changed by this commit at once, so
+	 * each directory is copied only once however many of its files changed
+	 * 
+	 * @param changes
+	 *            map of the name of each changed file to the ID of its
+	 *            contents in the ObjectStore, or null if it is removed
 	 */
-	public File getFolder()
+	public void update(Map<String, String> changes)
 	{
-		return folder;
+		tree = tree.withAll(changes);
+		for (Map.Entry<String, String> change : changes.entrySet())
+			if (change.getValue() == null)
+				blobs.remove(change.getKey());
+			else
+				blobs.put(change.getKey(), change.getValue());
 	}
 
 	/**
-	 * Gets an ArrayList of Files that have been modified
-	 * @param GitletNode - the other commit node 
-	 * @return ArrayList - list of files that have been modified
+	 * @return hash of the tree of files, equal for two commits exactly when
+	 *         they have the same files with the same contents
 	 */
-	public ArrayList<File> getModifiedFilesForRebase(GitletNode node)
+	public String getTreeID()
 	{
-		GitletNode current = this;
-		ArrayList<File> toReturn = new ArrayList<File>();
-		while (current != node)
-		{
-			for (File file : current.getFolder().listFiles())
-				if (!toReturn.contains(file.getName()))
-					toReturn.add(file);
-			// fixed
-			current = current.prevCommit;
-		}
-		return toReturn;
+		return tree.getID();
+	}
+
+	/**
+	 * @return map of the files changed by this commit to their blob IDs
+	 */
+	public HashMap<String, String> getBlobs()
+	{
+		return blobs;
 	}
 
 	/**
-	 * Gets the ArrayList of the names of all of the files that have been
-	 * modified since the node
+	 * Gets all of the files that are different in this commit than in the
+	 * node, by comparing their trees; directories that are the same in both
+	 * are skipped without being read, so this only reads what changed
 	 * 
 	 * @param node
 	 *            The node to be compared with
-	 * @return List of names of modified files
+	 * @return map of the name of each added, changed or removed file to its
+	 *         blob ID in this commit (null if it was removed), in order
 	 */
-	public LinkedList<String> getModifiedFiles(GitletNode node)
+	public TreeMap<String, String> getModifiedFiles(GitletNode node)
 	{
-		GitletNode current = this;
-		LinkedList<String> toReturn = new LinkedList<String>();
-		while (current != node)
-		{
-			for (String fileName : nameOfFiles)
-			{
-				File file = new File(folder, fileName);
-				if (file.exists() && !toReturn.contains(fileName))
-					toReturn.add(fileName);
-			}
-			// fixed
-			current = current.prevCommit;
-		}
-		return toReturn;
+		return node.tree.diff(tree);
 	}
 
 	/**
-	 * Finds and returns the file with the given name
+	 * Finds the contents of the file with the given name as of this commit,
+	 * with one lookup per directory in its path
 	 * 
 	 * @param fileName
-	 *            : The name of the file to be returned
-	 * @return Most recent occurrence of the file or null if the file does not
-	 *         exist
+	 *            : The name of the file
+	 * @return ID of the blob of the file or null if the file does not exist in
+	 *         this commit
 	 */
-	public File getFile(String fileName)
+	public String getBlobID(String fileName)
 	{
-		if (!nameOfFiles.contains(fileName))
-			return null;
-		File file = new File(".gitlet/commits/" + commitID + "/" + fileName);
-		if (file.exists())
-			return file;
-		return prevCommit.getFile(fileName);
+		return tree.get(fileName);
 	}
 }
@@ -1,24 +1,727 @@
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.InflaterInputStream;
 
+import org.junit.After;
+import org.junit.Ignore;
 import org.junit.Test;
 
 
 public class GitletNodeTest
 {
+	private static final int	DEEP_HISTORY	= 100000;
+	// limits of the JVM that reads the deep history back; holding all of
+	// its commits in memory at once would take several times SMALL_HEAP
+	private static final String	SMALL_STACK		= "-Xss256k";
+	private static final String	SMALL_HEAP		= "-Xmx24m";
+	private static final String	BLOB_ID			= "0123456789abcdef0123456789abcdef01234567";
+
+	// directories made by tempDir, deleted after each test
+	private List<File>			tempDirs		= new ArrayList<File>();
+
+	@After
+	public void deleteTempDirs() throws IOException
+	{
+		for (File dir : tempDirs)
+			GitletTest.recursiveDelete(dir);
+		tempDirs.clear();
+	}
 
 	@Test
 	public void testGetContents() throws IOException
 	{
+		File dir = tempDir();
+		ObjectStore objects = new ObjectStore(new File(dir, "objects"));
+		CommitStore commits = new DiskCommitStore(dir, DiskCommitStore.DEFAULT_CAPACITY, objects);
 		GitletNode node1 = new GitletNode("1", 0, null);
-		Gitlet.copyFileUsingFileChannels(File.createTempFile("file1", ".txt"), new File(node1.getFolder(), "file1.txt"));
+		String blob1 = objects.put(File.createTempFile("file1", ".txt", dir));
+		node1.addBlob("file1.txt", blob1);
+		commits.add(node1);
 		GitletNode node2 = new GitletNode("2", 1, node1);
-		Gitlet.copyFileUsingFileChannels(File.createTempFile("file2", ".txt"), new File(node2.getFolder(), "file2.txt"));
-		node2.addFile("file1.txt");
-		assertTrue(new File(node1.getFolder(), "file1.txt").exists());
-		assertTrue(new File(node2.getFolder(), "file2.txt").exists());
+		String blob2 = objects.put(File.createTempFile("file2", ".txt", dir));
+		node2.addBlob("file2.txt", blob2);
+		commits.add(node2);
+		assertTrue(objects.contains(blob1));
+		assertTrue(objects.contains(blob2));
+		assertEquals(blob1, node2.getBlobID("file1.txt"));
+		assertEquals(null, node1.getBlobID("file2.txt"));
+	}
+
+	@Test
+	public void testReadRecord() throws IOException
+	{
+		File dir = tempDir();
+		CommitStore commits = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		GitletNode node1 = new GitletNode("first", 0, null);
+		node1.addBlob("a.txt", "0123456789abcdef0123456789abcdef01234567");
+		commits.add(node1);
+		GitletNode node2 = new GitletNode("second", 1, node1);
+		commits.add(node2);
+
+		// a fresh store has to read both records back from disk
+		GitletNode read = store(dir, DiskCommitStore.DEFAULT_CAPACITY).get(1);
+		assertEquals("second", read.getMessage());
+		assertEquals(1, read.getID());
+		assertEquals("first", read.getPrevCommit().getMessage());
+		assertEquals(null, read.getPrevCommit().getPrevCommit());
+		assertEquals("0123456789abcdef0123456789abcdef01234567", read.getBlobID("a.txt"));
+		// second changed nothing, so both commits have the same manifest
+		assertEquals(node1.getTreeID(), read.getTreeID());
+		assertEquals(0, read.getBlobs().size());
+		assertEquals(null, store(dir, DiskCommitStore.DEFAULT_CAPACITY).get(2));
+		assertEquals(null, store(dir, DiskCommitStore.DEFAULT_CAPACITY).get("not an id"));
+	}
+
+	/**
+	 * Builds a 100k commit linear history and reads it back from disk in a
+	 * JVM with a small stack and a small heap. Walking the history (log,
+	 * finding a file only the first commit has) must not recurse once per
+	 * ancestor, and must not keep every commit it has read in memory.
+	 */
+	@Test
+	public void testDeepHistory() throws Exception
+	{
+		File dir = tempDir();
+		CommitStore commits = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		GitletNode node = new GitletNode("0", 0, null);
+		node.addBlob("root.txt", BLOB_ID);
+		commits.add(node);
+		for (int i = 1; i < DEEP_HISTORY; i++)
+		{
+			GitletNode next = new GitletNode(Integer.toString(i), i, node);
+			commits.add(next);
+			node = next;
+		}
+
+		Process reader = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+				SMALL_STACK, SMALL_HEAP, "-cp", System.getProperty("java.class.path"), "GitletNodeTest",
+				dir.getPath(), Integer.toString(DEEP_HISTORY - 1)).redirectErrorStream(true).start();
+		String output = new String(reader.getInputStream().readAllBytes()).trim();
+		assertEquals(output, 0, reader.waitFor());
+		assertEquals(BLOB_ID + " " + DEEP_HISTORY, output);
+	}
+
+	/**
+	 * Reads back the history testDeepHistory builds, in the JVM it starts
+	 * with a small stack and heap
+	 * 
+	 * @param args
+	 *            directory of the commit store and ID of the head commit
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		GitletNode head = store(new File(args[0]), DiskCommitStore.DEFAULT_CAPACITY).get(Integer.parseInt(args[1]));
+		String blobID = head.getBlobID("root.txt");
+		// every commit in the log starts with a === line; the log is counted
+		// rather than kept, so it takes no memory
+		final int[] separators = new int[1];
+		PrintStream originalOut = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			public void write(int b)
+			{
+				if (b == '=')
+					separators[0]++;
+			}
+		}));
+		try
+		{
+			head.printLog();
+		}
+		finally
+		{
+			System.setOut(originalOut);
+		}
+		System.out.println(blobID + " " + separators[0] / 3);
+	}
+
+	/**
+	 * Builds a 100k commit history with a branch off its middle and checks
+	 * that finding split points with the skip list gets the same commit as
+	 * walking back one commit at a time
+	 */
+	@Test
+	public void testSplitPoint() throws IOException
+	{
+		File dir = tempDir();
+		CommitStore commits = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		GitletNode[] history = forkedHistory(commits);
+		GitletNode fork = history[0];
+		GitletNode master = history[1];
+		GitletNode branch = history[2];
+		assertEquals(DEEP_HISTORY - 1, master.getGeneration());
+		assertEquals(DEEP_HISTORY / 2 + DEEP_HISTORY / 4, branch.getGeneration());
+
+		CommitStore fresh = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		assertEquals(fork, fresh.get(master.getID()).getSplitPoint(fresh.get(branch.getID())));
+		assertEquals(fork, fresh.get(branch.getID()).getSplitPoint(fresh.get(master.getID())));
+		assertEquals(commits.get(12345), fresh.get(master.getID()).getSplitPoint(fresh.get(12345)));
+		assertEquals(commits.get(777), fresh.get(777).getAncestor(777));
+		assertEquals(commits.get(1000), fresh.get(branch.getID()).getAncestor(1000));
+
+		fresh = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		assertEquals(fork, walkToSplitPoint(fresh.get(master.getID()), fresh.get(branch.getID())));
+	}
+
+	/**
+	 * Times finding the split point of the branches of a 100k commit history
+	 * with the skip list against walking back one commit at a time, each
+	 * from a store that has read nothing yet. Not part of the suite, since
+	 * the numbers depend on the machine; remove the Ignore to run it.
+	 */
+	@Ignore
+	@Test
+	public void benchmarkSplitPoint() throws IOException
+	{
+		File dir = tempDir();
+		GitletNode[] history = forkedHistory(store(dir, DiskCommitStore.DEFAULT_CAPACITY));
+		int masterID = history[1].getID();
+		int branchID = history[2].getID();
+
+		CommitStore fresh = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		long start = System.nanoTime();
+		fresh.get(masterID).getSplitPoint(fresh.get(branchID));
+		long skipping = System.nanoTime() - start;
+
+		fresh = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		start = System.nanoTime();
+		walkToSplitPoint(fresh.get(masterID), fresh.get(branchID));
+		long walking = System.nanoTime() - start;
+		System.out.println("split point of " + DEEP_HISTORY + " commits: " + skipping / 1000 + "us skipping, "
+				+ walking / 1000 + "us walking");
+	}
+
+	/**
+	 * Stores a history of DEEP_HISTORY commits, and a branch of a quarter as
+	 * many commits off its middle
+	 * 
+	 * @param commits
+	 *            store to add the commits to
+	 * @return the commit the branch starts from, the head of the history and
+	 *         the head of the branch
+	 * @throws IOException
+	 */
+	private static GitletNode[] forkedHistory(CommitStore commits) throws IOException
+	{
+		GitletNode node = new GitletNode("0", 0, null);
+		commits.add(node);
+		GitletNode fork = node;
+		for (int i = 1; i < DEEP_HISTORY; i++)
+		{
+			node = new GitletNode(Integer.toString(i), i, node);
+			commits.add(node);
+			if (i == DEEP_HISTORY / 2)
+				fork = node;
+		}
+		GitletNode master = node;
+		for (int i = DEEP_HISTORY; i < DEEP_HISTORY + DEEP_HISTORY / 4; i++)
+		{
+			node = new GitletNode(Integer.toString(i), i, node == master ? fork : node);
+			commits.add(node);
+		}
+		return new GitletNode[] { fork, master, node };
+	}
+
+	/**
+	 * Finds the split point of two commits without merges in their histories
+	 * by walking back one commit at a time
+	 */
+	private static GitletNode walkToSplitPoint(GitletNode a, GitletNode b)
+	{
+		while (!a.equals(b))
+			if (a.getGeneration() > b.getGeneration())
+				a = a.getPrevCommit();
+			else
+				b = b.getPrevCommit();
+		return a;
+	}
+
+	/**
+	 * Builds two long-lived branches that merge into each other over and over,
+	 * and checks the split point of many pairs of commits against the latest
+	 * commit found in both of their whole histories
+	 */
+	@Test
+	public void testMergeSplitPoint() throws IOException
+	{
+		File dir = tempDir();
+		CommitStore commits = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		GitletNode master = new GitletNode("0", 0, null);
+		commits.add(master);
+		GitletNode branch = master;
+		Random random = new Random(19);
+		for (int i = 1; i < 2000; i++)
+		{
+			int choice = random.nextInt(20);
+			if (choice == 0)
+				master = new GitletNode(Integer.toString(i), i, master, branch);
+			else if (choice == 1)
+				branch = new GitletNode(Integer.toString(i), i, branch, master);
+			else if (choice < 10)
+			{
+				master = new GitletNode(Integer.toString(i), i, master);
+				commits.add(master);
+				continue;
+			}
+			else
+			{
+				branch = new GitletNode(Integer.toString(i), i, branch);
+				commits.add(branch);
+				continue;
+			}
+			commits.add(choice == 0 ? master : branch);
+		}
+
+		CommitStore fresh = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		GitletNode merge = null;
+		for (int i = 1999; merge == null; i--)
+			if (fresh.get(i).getMergedCommit() != null)
+				merge = fresh.get(i);
+		assertEquals(Math.max(merge.getPrevCommit().getGeneration(), merge.getMergedCommit().getGeneration()) + 1,
+				merge.getGeneration());
+		for (int i = 0; i < 200; i++)
+		{
+			GitletNode a = fresh.get(random.nextInt(2000));
+			GitletNode b = fresh.get(random.nextInt(2000));
+			HashMap<Integer, GitletNode> inA = history(a);
+			HashMap<Integer, GitletNode> inB = history(b);
+			GitletNode expected = null;
+			for (GitletNode node : inB.values())
+				if (inA.containsKey(node.getID())
+						&& (expected == null || node.getGeneration() > expected.getGeneration()))
+					expected = node;
+			GitletNode split = a.getSplitPoint(b);
+			assertEquals(expected.getGeneration(), split.getGeneration());
+			assertTrue(inA.containsKey(split.getID()));
+			assertTrue(inB.containsKey(split.getID()));
+		}
+	}
+
+	/**
+	 * @return every commit in the history of node, through both parents of
+	 *         merge commits, by ID
+	 */
+	private static HashMap<Integer, GitletNode> history(GitletNode node)
+	{
+		HashMap<Integer, GitletNode> history = new HashMap<Integer, GitletNode>();
+		ArrayList<GitletNode> toVisit = new ArrayList<GitletNode>();
+		toVisit.add(node);
+		while (!toVisit.isEmpty())
+		{
+			GitletNode current = toVisit.remove(toVisit.size() - 1);
+			if (history.put(current.getID(), current) == null)
+				toVisit.addAll(current.getParents());
+		}
+		return history;
+	}
+
+	/**
+	 * Diffs random sequences and checks that the edits turn one into the
+	 * other and are as short as the longest common subsequence allows
+	 */
+	@Test
+	public void testMyersDiff()
+	{
+		Random random = new Random(21);
+		for (int round = 0; round < 300; round++)
+		{
+			int[] a = randomLines(random, random.nextInt(40));
+			int[] b = randomLines(random, random.nextInt(40));
+			int changed = checkEdits(a, b, new MyersDiff().diff(a, b));
+
+			int[][] lcs = new int[a.length + 1][b.length + 1];
+			for (int i = a.length - 1; i >= 0; i--)
+				for (int j = b.length - 1; j >= 0; j--)
+					lcs[i][j] = a[i] == b[j] ? lcs[i + 1][j + 1] + 1 : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+			assertEquals(a.length + b.length - 2 * lcs[0][0], changed);
+		}
+	}
+
+	/**
+	 * Diffs random sequences with histogram diff and checks that the edits
+	 * turn one into the other, then checks that a moved block is lined up on
+	 * its rare lines rather than on the common ones next to it
+	 */
+	@Test
+	public void testHistogramDiff()
+	{
+		Random random = new Random(22);
+		for (int round = 0; round < 300; round++)
+		{
+			int[] a = randomLines(random, random.nextInt(60));
+			int[] b = randomLines(random, random.nextInt(60));
+			checkEdits(a, b, new HistogramDiff().diff(a, b));
+		}
+		// 0 is a blank line, and 1, 2 and 3 a block of unique lines that
+		// moves from before the blank lines to after them
+		int[] a = { 1, 2, 3, 0, 0, 0 };
+		int[] b = { 0, 0, 0, 1, 2, 3 };
+		assertEquals(Arrays.asList(new Edit(0, 0, 0, 3), new Edit(3, 6, 6, 6)), new HistogramDiff().diff(a, b));
+	}
+
+	/**
+	 * Checks that applying edits to a gives b
+	 * 
+	 * @return number of lines removed and added by the edits
+	 */
+	private static int checkEdits(int[] a, int[] b, List<Edit> edits)
+	{
+		ArrayList<Integer> rebuilt = new ArrayList<Integer>();
+		int changed = 0;
+		int copied = 0;
+		for (Edit edit : edits)
+		{
+			for (int i = copied; i < edit.getBeginA(); i++)
+				rebuilt.add(a[i]);
+			for (int i = edit.getBeginB(); i < edit.getEndB(); i++)
+				rebuilt.add(b[i]);
+			changed += edit.getEndA() - edit.getBeginA() + edit.getEndB() - edit.getBeginB();
+			copied = edit.getEndA();
+		}
+		for (int i = copied; i < a.length; i++)
+			rebuilt.add(a[i]);
+		assertEquals(Arrays.toString(b), rebuilt.toString());
+		return changed;
+	}
+
+	/**
+	 * Merges versions of a file that changed different lines, the same lines
+	 * in the same way, and the same lines in different ways
+	 */
+	@Test
+	public void testLineMerge()
+	{
+		byte[] base = "1\n2\n3\n4\n5\n6\n7\n8\n".getBytes();
+		LineMerge merge = LineMerge.merge(base, "one\n2\n3\n4\n5\n6\n7\n8\n".getBytes(),
+				"1\n2\n3\n4\n5\n6\n7\neight\n9".getBytes(), "master", "branch", new MyersDiff());
+		assertFalse(merge.hasConflicts());
+		assertEquals("one\n2\n3\n4\n5\n6\n7\neight\n9", new String(merge.getContents()));
+
+		merge = LineMerge.merge(base, "1\n2\nthree\n4\n5\n".getBytes(), "1\n2\nthree\n4\n5\n6\n7\n8\n".getBytes(),
+				"master", "branch", new MyersDiff());
+		assertFalse(merge.hasConflicts());
+		assertEquals("1\n2\nthree\n4\n5\n", new String(merge.getContents()));
+
+		merge = LineMerge.merge(base, "1\n2\nours\n4\n5\n6\n7\n8\n".getBytes(),
+				"1\n2\ntheirs\nmore\n4\n5\n6\n7\nlast".getBytes(), "master", "branch", new MyersDiff());
+		assertTrue(merge.hasConflicts());
+		assertEquals("1\n2\n<<<<<<< master\nours\n=======\ntheirs\nmore\n>>>>>>> branch\n4\n5\n6\n7\nlast",
+				new String(merge.getContents()));
+	}
+
+	private static int[] randomLines(Random random, int length)
+	{
+		int[] lines = new int[length];
+		for (int i = 0; i < length; i++)
+			lines[i] = random.nextInt(4);
+		return lines;
+	}
+
+	/**
+	 * Builds a chain of commits in memory on top of stored ones, stores the
+	 * whole chain at once, and checks that it skips back exactly like a
+	 * chain stored one commit at a time
+	 */
+	@Test
+	public void testAddAll() throws IOException
+	{
+		File oneDir = tempDir();
+		File allDir = tempDir();
+		CommitStore one = store(oneDir, 16);
+		CommitStore all = store(allDir, 16);
+		GitletNode oneNode = new GitletNode("0", 0, null);
+		GitletNode allNode = new GitletNode("0", 0, null);
+		one.add(oneNode);
+		all.add(allNode);
+		for (int i = 1; i < 100; i++)
+		{
+			oneNode = new GitletNode(Integer.toString(i), i, oneNode);
+			allNode = new GitletNode(Integer.toString(i), i, allNode);
+			one.add(oneNode);
+			all.add(allNode);
+		}
+		ArrayList<GitletNode> chain = new ArrayList<GitletNode>();
+		for (int i = 100; i < 1000; i++)
+		{
+			oneNode = new GitletNode(Integer.toString(i), i, oneNode);
+			oneNode.addBlob("file", BLOB_ID);
+			one.add(oneNode);
+			allNode = new GitletNode(Integer.toString(i), i, allNode);
+			allNode.addBlob("file", BLOB_ID);
+			chain.add(allNode);
+		}
+		assertNull(all.get(500));
+		all.addAll(chain);
+
+		CommitStore fresh = store(allDir, 16);
+		CommitStore freshOne = store(oneDir, 16);
+		for (int i = 0; i < 1000; i++)
+			assertEquals(graphFields(freshOne.get(i), freshOne.getObjectStore()),
+					graphFields(fresh.get(i), fresh.getObjectStore()));
+		assertEquals(fresh.get(333), fresh.get(999).getAncestor(333));
+		assertEquals(BLOB_ID, fresh.get(777).getBlobID("file"));
+	}
+
+	/**
+	 * Walks a history much longer than the cache and makes sure only the most
+	 * recently used commits stay in memory, and that commits read again after
+	 * being evicted are still the same commits.
+	 */
+	@Test
+	public void testCacheIsBounded() throws IOException
+	{
+		File dir = tempDir();
+		DiskCommitStore commits = store(dir, 16);
+		GitletNode node = new GitletNode("0", 0, null);
+		commits.add(node);
+		for (int i = 1; i < 200; i++)
+		{
+			node = new GitletNode(Integer.toString(i), i, node);
+			commits.add(node);
+		}
+		assertTrue(commits.cachedCount() <= 16);
+
+		DiskCommitStore fresh = store(dir, 16);
+		GitletNode head = fresh.get(199);
+		int depth = 0;
+		for (GitletNode current = head; current != null; current = current.getPrevCommit())
+			depth++;
+		assertEquals(200, depth);
+		assertTrue(fresh.cachedCount() <= 16);
+		// head was evicted long ago, so this reads it from disk again
+		assertEquals(head, fresh.get(199));
+	}
+
+	/**
+	 * A commit that changes one file should only write new trees for the
+	 * directories along that file's path; the rest are shared with its parent.
+	 */
+	@Test
+	public void testTreeSharing() throws IOException
+	{
+		File dir = tempDir();
+		DiskCommitStore commits = store(dir, DiskCommitStore.DEFAULT_CAPACITY);
+		GitletNode node1 = new GitletNode("1", 0, null);
+		for (int i = 0; i < 10; i++)
+			node1.addBlob("dir" + i + "/sub/file.txt", BLOB_ID);
+		commits.add(node1);
+		int objectsBefore = countFiles(new File(dir, "objects"));
+
+		GitletNode node2 = new GitletNode("2", 1, node1);
+		node2.addBlob("dir3/sub/file.txt", "fedcba9876543210fedcba9876543210fedcba98");
+		node2.removeFile("dir7/sub/file.txt");
+		commits.add(node2);
+		// new root, new dir3 and new dir3/sub; dir7 is gone altogether
+		assertEquals(objectsBefore + 3, countFiles(new File(dir, "objects")));
+
+		GitletNode read = store(dir, DiskCommitStore.DEFAULT_CAPACITY).get(1);
+		assertEquals(9, read.getFiles().size());
+		assertEquals(BLOB_ID, read.getBlobID("dir0/sub/file.txt"));
+		assertEquals("fedcba9876543210fedcba9876543210fedcba98", read.getBlobID("dir3/sub/file.txt"));
+		assertEquals(null, read.getBlobID("dir7/sub/file.txt"));
+		assertEquals(BLOB_ID, node1.getBlobID("dir7/sub/file.txt"));
+	}
+
+	@Test
+	public void testBulkUpdate()
+	{
+		GitletNode one = new GitletNode("one at a time", 0, null);
+		GitletNode bulk = new GitletNode("all at once", 0, null);
+		HashMap<String, String> changes = new HashMap<String, String>();
+		for (int i = 0; i < 1000; i++)
+		{
+			String fileName = (i % 3 == 0 ? "" : "dir" + i % 7 + "/") + "file" + i + ".txt";
+			one.addBlob(fileName, BLOB_ID);
+			changes.put(fileName, BLOB_ID);
+		}
+		bulk.update(changes);
+		assertEquals(one.getTreeID(), bulk.getTreeID());
+
+		changes.clear();
+		for (int i = 0; i < 1000; i++)
+			if (i % 7 == 1 || i % 2 == 0)
+			{
+				String fileName = (i % 3 == 0 ? "" : "dir" + i % 7 + "/") + "file" + i + ".txt";
+				one.removeFile(fileName);
+				changes.put(fileName, null);
+			}
+		one.addBlob("new/file.txt", BLOB_ID);
+		changes.put("new/file.txt", BLOB_ID);
+		bulk.update(changes);
+		assertEquals(one.getTreeID(), bulk.getTreeID());
+		assertEquals(one.getFiles(), bulk.getFiles());
+		assertEquals(null, bulk.getBlobID("dir1/file1.txt"));
+		assertEquals(BLOB_ID, bulk.getBlobs().get("new/file.txt"));
+	}
+
+	@Test
+	public void testCompressedObjects() throws IOException
+	{
+		File dir = tempDir();
+		File source = new File(dir, "log.txt");
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			text.append("line ").append(i % 100).append(" of a very repetitive log\n");
+		Files.write(source.toPath(), text.toString().getBytes());
+
+		ObjectStore objects = new ObjectStore(new File(dir, "objects"), 9);
+		String id = objects.put(source);
+		assertEquals(ObjectStore.hash(source), id);
+		assertTrue(objects.getFile(id).length() * 10 < source.length());
+
+		File copy = new File(dir, "out/log.txt");
+		objects.copyTo(id, copy);
+		assertArrayEquals(Files.readAllBytes(source.toPath()), Files.readAllBytes(copy.toPath()));
+		assertArrayEquals(Files.readAllBytes(source.toPath()), objects.read(id));
+
+		// storing nothing still round trips, with or without compression
+		ObjectStore uncompressed = new ObjectStore(new File(dir, "raw"), 0);
+		String empty = uncompressed.put(new byte[0]);
+		assertEquals(ObjectStore.hash(new byte[0]), empty);
+		assertEquals(0, uncompressed.read(empty).length);
+	}
+
+	@Test
+	public void testDeltaPacks() throws IOException
+	{
+		File dir = tempDir();
+		ObjectStore objects = new ObjectStore(new File(dir, "objects"));
+		// random bytes do not compress, so only deltas can make the pack small
+		byte[] contents = new byte[100000];
+		new Random(61).nextBytes(contents);
+		ArrayList<String> history = new ArrayList<String>();
+		ArrayList<byte[]> versions = new ArrayList<byte[]>();
+		for (int i = 0; i < 3 * PackFile.MAX_DEPTH; i++)
+		{
+			contents = contents.clone();
+			contents[i * 1000] ^= 1;
+			versions.add(contents);
+			history.add(objects.put(contents));
+		}
+		assertArrayEquals(versions.get(1), Delta.apply(versions.get(0), Delta.create(versions.get(0), versions.get(1))));
+
+		objects.repack(Arrays.asList(history));
+		File[] packs = new File(dir, "objects/pack").listFiles();
+		long packed = 0;
+		for (File pack : packs)
+			packed += pack.length();
+		// one whole version at the start of each chain, deltas for the rest
+		assertTrue(packed < 4 * contents.length);
+		for (int i = versions.size() - 1; i >= 0; i--)
+			assertArrayEquals(versions.get(i), objects.read(history.get(i)));
+
+		// packing again rebuilds the deltas from the old pack
+		objects.put("loose".getBytes());
+		objects.repack(Arrays.asList(history));
+		for (int i = 0; i < versions.size(); i++)
+			assertArrayEquals(versions.get(i), new ObjectStore(new File(dir, "objects")).read(history.get(i)));
+	}
+
+	/**
+	 * Reads a pack through windows far smaller than its objects, so most
+	 * objects cross from one window into the next, as they do at the 1 GB
+	 * edges of a pack bigger than one buffer can map
+	 */
+	@Test
+	public void testPackWindows() throws IOException
+	{
+		File dir = tempDir();
+		ObjectStore objects = new ObjectStore(new File(dir, "objects"));
+		byte[] contents = new byte[10000];
+		new Random(67).nextBytes(contents);
+		ArrayList<String> history = new ArrayList<String>();
+		ArrayList<byte[]> versions = new ArrayList<byte[]>();
+		for (int i = 0; i < 2 * PackFile.MAX_DEPTH; i++)
+		{
+			contents = contents.clone();
+			contents[i * 100] ^= 1;
+			versions.add(contents);
+			history.add(objects.put(contents));
+		}
+		objects.repack(Arrays.asList(history));
+
+		File index = new File(dir, "objects/pack").listFiles(new FilenameFilter()
+		{
+			public boolean accept(File pack, String name)
+			{
+				return name.endsWith(".idx");
+			}
+		})[0];
+		for (long windowSize : new long[] { 7, 4096, 1L << 30 })
+		{
+			PackFile pack = new PackFile(index, windowSize);
+			for (int i = versions.size() - 1; i >= 0; i--)
+				try (InputStream in = pack.open(history.get(i)))
+				{
+					assertArrayEquals(versions.get(i), in.readAllBytes());
+				}
+			try (InputStream in = pack.openStored(history.get(0)))
+			{
+				assertArrayEquals(versions.get(0), new InflaterInputStream(in).readAllBytes());
+			}
+		}
+		try
+		{
+			new PackFile(index, Integer.MAX_VALUE + 1L);
+			fail("a window bigger than a buffer can map should be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	private static int countFiles(File dir)
+	{
+		int count = 0;
+		for (File file : dir.listFiles())
+			count += file.isDirectory() ? countFiles(file) : 1;
+		return count;
+	}
+
+	/**
+	 * @return the IDs, generation and depths at the start of a commit's
+	 *         record, which say where it is in the history and what it skips
+	 *         back to
+	 */
+	private static String graphFields(GitletNode node, ObjectStore objects) throws IOException
+	{
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		node.write(new DataOutputStream(record), objects);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.toByteArray()));
+		int[] fields = new int[8];
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = in.readInt();
+		return Arrays.toString(fields);
+	}
+
+	private static DiskCommitStore store(File dir, int capacity)
+	{
+		return new DiskCommitStore(dir, capacity, new ObjectStore(new File(dir, "objects")));
+	}
+
+	private File tempDir() throws IOException
+	{
+		File dir = Files.createTempDirectory("commits").toFile();
+		tempDirs.add(dir);
+		return dir;
 	}
 
 }
@@ -7,12 +7,20 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 
 /**
@@ -27,6 +35,9 @@ public class GitletTest
 	private static final String	TESTING_DIR		= "test_files/";
 	private static final String	COMMIT_DIR		= ".gitlet/commits/";
 	private static final String	STAGING_DIR		= ".gitlet/staging/";
+	private static final String	OBJECT_DIR		= ".gitlet/objects/";
+	// files in the tree written by testParallelWrites
+	private static final int	PARALLEL_FILES	= 5000;
 
 	/* matches either unix/mac or windows line separators */
 	private static final String	LINE_SEPARATOR	= "\r\n|[\r\n]";
@@ -93,8 +104,10 @@ public class GitletTest
 		File f = new File(GITLET_DIR);
 		assertTrue(f.exists());
 
-		assertTrue(new File(COMMIT_DIR + 0).exists());
+		assertTrue(new File(OBJECT_DIR).exists());
+		assertArrayEquals(new String[] { "initial commit" }, extractCommitMessages(gitlet("log")));
 
+		outContent.reset();
 		gitlet("init");
 		assertEquals("A gitlet version control system already exists in the current directory.", outContent.toString().trim());
 	}
@@ -305,6 +318,53 @@ public class GitletTest
 		return messages;
 	}
 
+	/**
+	 * Returns the names listed under "=== Staged Files ===" in what status has
+	 * printed out.
+	 */
+	private static String[] extractStagedFiles(String statusOutput)
+	{
+		return extractSection(statusOutput, "=== Staged Files ===");
+	}
+
+	/**
+	 * Returns the lines listed under the given header in what status has
+	 * printed out.
+	 */
+	private static String[] extractSection(String statusOutput, String header)
+	{
+		String[] lines = statusOutput.split(LINE_SEPARATOR);
+		ArrayList<String> section = new ArrayList<String>();
+		int i = Arrays.asList(lines).indexOf(header) + 1;
+		while (i < lines.length && !lines[i].isEmpty())
+			section.add(lines[i++]);
+		return section.toArray(new String[section.size()]);
+	}
+
+	/**
+	 * Loads the Gitlet that the last command run through the terminal or
+	 * gitletFast left behind in the .gitlet directory.
+	 */
+	private static Gitlet loadGitlet()
+	{
+		return new Gitlet();
+	}
+
+	/**
+	 * Returns the text of the blob with the given ID in gitlet's object store.
+	 */
+	private static String getBlobText(Gitlet gitlet, String blobID)
+	{
+		try
+		{
+			return new String(gitlet.getObjectStore().read(blobID), StandardCharsets.UTF_8);
+		}
+		catch (IOException e)
+		{
+			return "";
+		}
+	}
+
 	/**
 	 * Executes the given command on the terminal, and return what it prints out
 	 * as a string.
@@ -358,11 +418,9 @@ public class GitletTest
 		assertEquals(outContent.toString().trim(), "Please enter a commit message.");
 		
 		gitlet("commit", "added test.txt");
-		File f = new File(GITLET_DIR + "commits/1/");
-		assertTrue(f.exists());
+		assertArrayEquals(new String[] { "added test.txt", "initial commit" }, extractCommitMessages(gitlet("log")));
 		
-		File staging = new File(STAGING_DIR);
-		assertEquals(staging.list().length, 0);
+		assertEquals(0, extractStagedFiles(gitlet("status")).length);
 		
 		outContent.reset();
 		gitlet("commit", "shouldn't work");
@@ -370,7 +428,7 @@ public class GitletTest
 	}
 	
 	@Test
-	public void testFileSystem2()
+	public void testFileSystem2() throws IOException
 	{
 		Gitlet gitlet = new Gitlet();
 		String firstCommit = "commit 1";
@@ -392,9 +450,9 @@ public class GitletTest
 		assertEquals(gitlet.getBranches().get("master").getMessage(), "commit 3");
 		//assertEquals(gitlet.getBranches().get("master").getPrevCommit().getMessage(), "commit 2");
 		assertEquals(gitlet.getBranches().get("master").getPrevCommit().getPrevCommit().getMessage(), "commit 1");
-		assertTrue(gitlet.getBranches().get("master").getFile("second_commit.txt").exists());
-		assertTrue(gitlet.getBranches().get("master").getFile("first_commit.txt").exists());
-		assertEquals(commit2Text, getText(gitlet.getBranches().get("master").getFile("first_commit.txt").getPath()));
+		assertNotNull(gitlet.getBranches().get("master").getBlobID("second_commit.txt"));
+		assertNotNull(gitlet.getBranches().get("master").getBlobID("first_commit.txt"));
+		assertEquals(commit2Text, getBlobText(gitlet, gitlet.getBranches().get("master").getBlobID("first_commit.txt")));
 	}
 
 	@Test
@@ -444,7 +502,7 @@ public class GitletTest
 	}
 
 	@Test
-	public void testCopy()
+	public void testCopy() throws IOException
 	{
 		createFile(TESTING_DIR + "a.txt", "a");
 		File file = new File(TESTING_DIR + "/folder");
@@ -470,7 +528,7 @@ public class GitletTest
 	}
 
 	@Test
-	public void testFileSystem()
+	public void testFileSystem() throws IOException
 	{
 		Gitlet gitlet = new Gitlet();
 		gitlet.add("a");
@@ -491,7 +549,7 @@ public class GitletTest
 	}
 
 	@Test
-	public void test3()
+	public void test3() throws IOException
 	{
 		createFile("a", "1");
 		createFile("nest1/a", "2");
@@ -502,7 +560,7 @@ public class GitletTest
 		gitlet.add("nest1/a");
 		gitlet.add("nest1/nest2/nest3/nest4/a");
 		gitlet.commit("nest1 nest4 a");
-		assertTrue(new File(".gitlet/commits/2/nest1/a").exists());
+		assertTrue(gitlet.getBranches().get("master").getBlobs().containsKey("nest1/a"));
 		writeFile("a", "changed no nest");
 		writeFile("nest1/a", "changed nest 1");
 		writeFile("nest1/nest2/nest3/nest4/a", "changed nest 4");
@@ -543,9 +601,188 @@ public class GitletTest
 		gitletFast("commit", "commit 2");
 		gitletFast("merge", "master");
 		gitletFast("commit", "commit3");
-		assertTrue(new File(".gitlet/commits/3/nest1/a").exists());
-		assertTrue(new File(".gitlet/commits/3/a.conflicting").exists());
-		assertEquals("1", getText(".gitlet/commits/3/a.conflicting"));
+		Gitlet gitlet = loadGitlet();
+		GitletNode commit3 = gitlet.getBranches().get("branch");
+		assertEquals(3, commit3.getID());
+		assertTrue(commit3.getBlobs().containsKey("nest1/a"));
+		assertTrue(commit3.getBlobs().containsKey("a.conflicting"));
+		assertEquals("1", getBlobText(gitlet, commit3.getBlobID("a.conflicting")));
+	}
+
+	/**
+	 * Merges a branch twice, and checks that the second merge only brings in
+	 * what changed on the branch since the first one, instead of finding
+	 * conflicts in files the first merge already brought in
+	 */
+	@Test
+	public void testRepeatedMerge() throws IOException
+	{
+		String a = TESTING_DIR + "a";
+		String b = TESTING_DIR + "b";
+		String c = TESTING_DIR + "c";
+		gitletFast("init");
+		createFile(a, "1");
+		createFile(b, "2");
+		gitletFast("branch", "feature");
+		gitletFast("add", a);
+		gitletFast("commit", "master 1");
+		gitletFast("checkout", "feature");
+		gitletFast("add", b);
+		gitletFast("commit", "feature 1");
+		gitletFast("checkout", "master");
+		assertEquals("", gitletFast("merge", "feature"));
+		Gitlet gitlet = loadGitlet();
+		GitletNode firstMerge = gitlet.getBranches().get("master");
+		assertEquals(gitlet.getBranches().get("feature"), firstMerge.getMergedCommit());
+		assertEquals("master 1", firstMerge.getPrevCommit().getMessage());
+		assertTrue(gitletFast("log").contains("Merge: 1 2"));
+
+		writeFile(a, "changed a");
+		gitletFast("add", a);
+		gitletFast("commit", "master 2");
+		gitletFast("checkout", "feature");
+		createFile(c, "3");
+		gitletFast("add", c);
+		gitletFast("commit", "feature 2");
+		gitletFast("checkout", "master");
+		assertEquals("", gitletFast("merge", "feature"));
+		gitlet = loadGitlet();
+		GitletNode secondMerge = gitlet.getBranches().get("master");
+		assertEquals(gitlet.getBranches().get("feature"), secondMerge.getMergedCommit());
+		assertEquals(firstMerge.getMergedCommit(),
+				secondMerge.getPrevCommit().getSplitPoint(gitlet.getBranches().get("feature")));
+		assertEquals(Collections.singleton(c), secondMerge.getBlobs().keySet());
+		assertEquals("changed a", getText(a));
+		assertEquals("3", getText(c));
+	}
+
+	/**
+	 * Merges branches that made the same change to one file, and where one
+	 * branch changed a file and then changed it back, and checks that neither
+	 * file is treated as changed
+	 */
+	@Test
+	public void testMergeComparesTrees() throws IOException
+	{
+		String same = TESTING_DIR + "same";
+		String reverted = TESTING_DIR + "reverted";
+		String other = TESTING_DIR + "nest1/nest2/other";
+		new File(TESTING_DIR + "nest1/nest2").mkdirs();
+		gitletFast("init");
+		createFile(same, "1");
+		createFile(reverted, "2");
+		createFile(other, "3");
+		gitletFast("add", same);
+		gitletFast("add", reverted);
+		gitletFast("add", other);
+		gitletFast("commit", "base");
+		gitletFast("branch", "branch");
+		writeFile(same, "changed");
+		gitletFast("add", same);
+		writeFile(reverted, "changed on master");
+		gitletFast("add", reverted);
+		gitletFast("commit", "master 1");
+		gitletFast("checkout", "branch");
+		writeFile(same, "changed");
+		gitletFast("add", same);
+		writeFile(reverted, "changed for a while");
+		gitletFast("add", reverted);
+		gitletFast("commit", "branch 1");
+		writeFile(reverted, "2");
+		gitletFast("add", reverted);
+		writeFile(other, "changed other");
+		gitletFast("add", other);
+		gitletFast("commit", "branch 2");
+
+		TreeMap<String, String> modified = loadGitlet().getBranches().get("branch")
+				.getModifiedFiles(loadGitlet().getBranches().get("master").getPrevCommit());
+		assertEquals(Arrays.asList(other, same), new ArrayList<String>(modified.keySet()));
+
+		gitletFast("checkout", "master");
+		assertEquals("", gitletFast("merge", "branch"));
+		Gitlet gitlet = loadGitlet();
+		GitletNode merged = gitlet.getBranches().get("master");
+		assertEquals(Collections.singleton(other), merged.getBlobs().keySet());
+		assertEquals("changed on master", getText(reverted));
+		assertEquals("changed other", getText(other));
+	}
+
+	/**
+	 * Merges a branch that changed other lines of the same files as the
+	 * current branch, and one line both changed differently
+	 */
+	@Test
+	public void testMergeLines() throws IOException
+	{
+		String clean = TESTING_DIR + "clean";
+		String conflict = TESTING_DIR + "conflict";
+		gitletFast("init");
+		createFile(clean, "1\n2\n3\n4\n5\n");
+		createFile(conflict, "a\nb\nc\n");
+		gitletFast("add", clean);
+		gitletFast("add", conflict);
+		gitletFast("commit", "base");
+		gitletFast("branch", "branch");
+		writeFile(clean, "one\n2\n3\n4\n5\n");
+		gitletFast("add", clean);
+		writeFile(conflict, "a\nmaster b\nc\n");
+		gitletFast("add", conflict);
+		gitletFast("commit", "master 1");
+		gitletFast("checkout", "branch");
+		writeFile(clean, "1\n2\n3\n4\nfive\n");
+		gitletFast("add", clean);
+		writeFile(conflict, "a\nbranch b\nc\n");
+		gitletFast("add", conflict);
+		gitletFast("commit", "branch 1");
+		gitletFast("checkout", "master");
+		gitletFast("merge", "branch");
+
+		assertEquals("one\n2\n3\n4\nfive\n", getText(clean));
+		assertEquals("a\n<<<<<<< master\nmaster b\n=======\nbranch b\n>>>>>>> branch\nc\n", getText(conflict));
+		Gitlet gitlet = loadGitlet();
+		assertEquals("master 1", gitlet.getBranches().get("master").getMessage());
+		gitletFast("commit", "resolved");
+		GitletNode resolved = loadGitlet().getBranches().get("master");
+		assertEquals("one\n2\n3\n4\nfive\n", getBlobText(gitlet, resolved.getBlobID(clean)));
+		assertEquals("a\nbranch b\nc\n", getBlobText(gitlet, resolved.getBlobID(conflict + ".conflicting")));
+	}
+
+	/**
+	 * Diffs the working directory against the head commit, limited to a
+	 * path, and two commits against each other
+	 */
+	@Test
+	public void testDiff() throws IOException
+	{
+		String a = TESTING_DIR + "a";
+		String nest = TESTING_DIR + "nest1";
+		String b = nest + "/b";
+		String c = nest + "/c";
+		new File(nest).mkdirs();
+		gitletFast("init");
+		createFile(a, "1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n");
+		createFile(b, "b\n");
+		gitletFast("add", a);
+		gitletFast("add", b);
+		gitletFast("commit", "commit 1");
+		assertEquals("", gitletFast("diff"));
+
+		writeFile(a, "1\n2\nthree\n4\n5\n6\n7\n8\n9\n10");
+		createFile(c, "c\n");
+		gitletFast("add", c);
+		new File(b).delete();
+		assertEquals("diff --git a/" + a + " b/" + a + "\n--- a/" + a + "\n+++ b/" + a + "\n@@ -1,10 +1,10 @@\n"
+				+ " 1\n 2\n-3\n+three\n 4\n 5\n 6\n 7\n 8\n 9\n-10\n+10\n\\ No newline at end of file",
+				gitletFast("diff", a));
+		assertEquals("diff --git a/" + b + " b/" + b + "\n--- a/" + b + "\n+++ /dev/null\n@@ -1 +0,0 @@\n-b\n"
+				+ "diff --git a/" + c + " b/" + c + "\n--- /dev/null\n+++ b/" + c + "\n@@ -0,0 +1 @@\n+c",
+				gitletFast("diff", "--histogram", nest));
+
+		gitletFast("rm", b);
+		gitletFast("commit", "commit 2");
+		assertEquals("diff --git a/" + c + " b/" + c + "\n--- /dev/null\n+++ b/" + c + "\n@@ -0,0 +1 @@\n+c",
+				gitletFast("diff", "1", "2", "--", c));
+		assertEquals("No commit with that id exists.", gitletFast("diff", "7"));
 	}
 
 	public void testRebase() throws IOException
@@ -572,6 +809,98 @@ public class GitletTest
 		gitletFast("commit", "commit 3 branch");
 		gitletFast("rebase", "master");
 	}
+
+	/**
+	 * Rebases a branch whose commits change the same file one after another,
+	 * and checks that each replayed commit keeps its own version of the file
+	 * along with the changes of the given branch
+	 */
+	@Test
+	public void testRebaseReplaysEachCommit() throws IOException
+	{
+		String x = TESTING_DIR + "x";
+		String y = TESTING_DIR + "y";
+		String m = TESTING_DIR + "m";
+		gitletFast("init");
+		createFile(x, "0");
+		createFile(y, "y");
+		createFile(m, "m");
+		gitletFast("add", x);
+		gitletFast("add", y);
+		gitletFast("add", m);
+		gitletFast("commit", "base");
+		gitletFast("branch", "topic");
+		writeFile(m, "changed on master");
+		gitletFast("add", m);
+		gitletFast("commit", "master 1");
+		gitletFast("checkout", "topic");
+		writeFile(x, "1");
+		gitletFast("add", x);
+		gitletFast("commit", "topic 1");
+		writeFile(x, "22");
+		gitletFast("add", x);
+		gitletFast("commit", "topic 2");
+		gitletFast("rm", y);
+		gitletFast("commit", "topic 3");
+
+		assertEquals("", gitletFast("rebase", "master"));
+		Gitlet gitlet = loadGitlet();
+		GitletNode topic3 = gitlet.getBranches().get("topic");
+		GitletNode topic2 = topic3.getPrevCommit();
+		GitletNode topic1 = topic2.getPrevCommit();
+		assertEquals(gitlet.getBranches().get("master"), topic1.getPrevCommit());
+		assertEquals(Arrays.asList(6, 7, 8), Arrays.asList(topic1.getID(), topic2.getID(), topic3.getID()));
+		assertEquals("1", getBlobText(gitlet, topic1.getBlobID(x)));
+		assertEquals("22", getBlobText(gitlet, topic2.getBlobID(x)));
+		assertNotNull(topic2.getBlobID(y));
+		assertNull(topic3.getBlobID(y));
+		assertEquals("changed on master", getBlobText(gitlet, topic1.getBlobID(m)));
+		assertEquals("22", getText(x));
+		assertEquals("changed on master", getText(m));
+	}
+
+	/**
+	 * Tests that rebasing a branch that merged the given branch in replays the
+	 * commits made before the merge, and leaves out the merge itself, whose
+	 * changes the given branch has already moved past
+	 */
+	@Test
+	public void testRebaseAfterMerge() throws IOException
+	{
+		String base = TESTING_DIR + "base.txt";
+		String onMaster = TESTING_DIR + "c.txt";
+		String onGiven = TESTING_DIR + "g.txt";
+		createFile(base, "base");
+		gitletFast("init");
+		gitletFast("add", base);
+		gitletFast("commit", "base");
+		gitletFast("branch", "given");
+		createFile(onMaster, "c");
+		gitletFast("add", onMaster);
+		gitletFast("commit", "C1");
+		gitletFast("checkout", "given");
+		createFile(onGiven, "g");
+		gitletFast("add", onGiven);
+		gitletFast("commit", "G1");
+		gitletFast("checkout", "master");
+		gitletFast("merge", "given");
+		gitletFast("checkout", "given");
+		writeFile(onGiven, "changed on given");
+		gitletFast("add", onGiven);
+		gitletFast("commit", "G2");
+		gitletFast("checkout", "master");
+
+		assertEquals("", gitletFast("rebase", "given"));
+		Gitlet gitlet = loadGitlet();
+		GitletNode head = gitlet.getBranches().get("master");
+		assertEquals("C1", head.getMessage());
+		assertEquals(gitlet.getBranches().get("given"), head.getPrevCommit());
+		assertEquals("c", getBlobText(gitlet, head.getBlobID(onMaster)));
+		assertEquals("c", getText(onMaster));
+		assertEquals("changed on given", getText(onGiven));
+		assertTrue(Arrays.asList(extractCommitMessages(gitletFast("log"))).contains("C1"));
+	}
+
 	@Test
 	public void testRebase2() throws IOException
 	{
@@ -609,7 +938,9 @@ public class GitletTest
 		gitletFast("commit", "commit# 4 random2.txt added");
 
 		assertEquals("", gitletFast("rebase", "master"));
-		assertTrue(new File(COMMIT_DIR, "5/third_commit.txt").exists());
+		GitletNode commit5 = loadGitlet().getBranches().get("branch").getPrevCommit();
+		assertEquals(5, commit5.getID());
+		assertTrue(commit5.getBlobs().containsKey("third_commit.txt"));
 	}
 	@Test
 	public void testRemove() throws IOException{
@@ -622,22 +953,655 @@ public class GitletTest
 		gitletFast("rm", "test.txt");
 		assertEquals(outContent.toString().trim(), "No reason to remove the file.");
 		
-		File f = new File(GITLET_DIR + "staging/" + fileName);
 		gitletFast("add", fileName);
-		assertTrue(f.exists());
+		assertArrayEquals(new String[] { fileName }, extractStagedFiles(gitletFast("status")));
 		gitletFast("rm", fileName);
-		assertFalse(f.exists());
+		assertEquals(0, extractStagedFiles(gitletFast("status")).length);
 		gitletFast("add", fileName);
 		gitletFast("commit", "added test.txt");
-		f = new File(GITLET_DIR + "commits/1/test_files/test.txt");
-		assertTrue(f.exists());
+		String blob = loadGitlet().getBranches().get("master").getBlobID(fileName);
+		assertNotNull(blob);
 		gitletFast("rm", fileName);
 		gitletFast("commit", "removed test.txt");
-		File commit2 = new File(GITLET_DIR + "commits/2");
-		assertEquals(commit2.listFiles().length, 0);
-		assertTrue(f.exists());
+		Gitlet gitlet = loadGitlet();
+		GitletNode commit2 = gitlet.getBranches().get("master");
+		assertEquals(0, commit2.getFiles().size());
+		assertTrue(gitlet.getObjectStore().contains(blob));
 	}
 	
+	/**
+	 * Tests that status reports tracked files changed or deleted in the
+	 * working directory without being staged, and files that are not tracked.
+	 */
+	@Test
+	public void testStatus() throws IOException
+	{
+		String modified = TESTING_DIR + "modified.txt";
+		String deleted = TESTING_DIR + "nested/deleted.txt";
+		String staged = TESTING_DIR + "staged.txt";
+		String untracked = TESTING_DIR + "nested/untracked.txt";
+		new File(TESTING_DIR + "nested").mkdirs();
+		createFile(modified, "modified");
+		createFile(deleted, "deleted");
+		createFile(staged, "staged");
+		gitletFast("init");
+		gitletFast("add", modified);
+		gitletFast("add", deleted);
+		gitletFast("commit", "added files");
+		gitletFast("add", staged);
+		writeFile(modified, "modified again");
+		new File(deleted).delete();
+		createFile(untracked, "untracked");
+
+		String status = gitletFast("status");
+		assertArrayEquals(new String[] { staged }, extractStagedFiles(status));
+		assertArrayEquals(new String[] { modified + " (modified)", deleted + " (deleted)" },
+				extractSection(status, "=== Modifications Not Staged For Commit ==="));
+		List<String> untrackedFiles = Arrays.asList(extractSection(status, "=== Untracked Files ==="));
+		assertTrue(untrackedFiles.contains(untracked));
+		assertFalse(untrackedFiles.contains(modified));
+		assertFalse(untrackedFiles.contains(staged));
+
+		writeFile(staged, "changed after staging");
+		gitletFast("add", modified);
+		status = gitletFast("status");
+		assertArrayEquals(new String[] { deleted + " (deleted)", staged + " (modified)" },
+				extractSection(status, "=== Modifications Not Staged For Commit ==="));
+	}
+
+	/**
+	 * Tests that checking out a branch, and resetting back, leaves the files
+	 * that are the same in both commits untouched, down to their modification
+	 * time, and removes the directories that no longer have any files.
+	 */
+	@Test
+	public void testCheckoutWritesOnlyDifferences() throws IOException
+	{
+		String same = TESTING_DIR + "same.txt";
+		String changed = TESTING_DIR + "nested/changed.txt";
+		String added = TESTING_DIR + "nested/deeper/added.txt";
+		new File(TESTING_DIR + "nested").mkdirs();
+		createFile(same, "same");
+		createFile(changed, "on master");
+		gitletFast("init");
+		gitletFast("add", same);
+		gitletFast("add", changed);
+		gitletFast("commit", "master files");
+		gitletFast("branch", "other");
+		gitletFast("checkout", "other");
+		new File(TESTING_DIR + "nested/deeper").mkdirs();
+		writeFile(changed, "on other");
+		createFile(added, "added");
+		gitletFast("add", changed);
+		gitletFast("add", added);
+		gitletFast("commit", "other files");
+
+		long modified = System.currentTimeMillis() - 60000;
+		new File(same).setLastModified(modified);
+		gitletFast("checkout", "master");
+		assertEquals("on master", getText(changed));
+		assertFalse(new File(added).exists());
+		assertFalse(new File(TESTING_DIR + "nested/deeper").exists());
+		assertEquals(modified / 1000, new File(same).lastModified() / 1000);
+
+		gitletFast("reset", "2");
+		assertEquals("on other", getText(changed));
+		assertEquals("added", getText(added));
+		assertEquals(modified / 1000, new File(same).lastModified() / 1000);
+	}
+
+	/**
+	 * Tests that checking out a branch leaves alone the files that gitlet
+	 * already wrote with the right contents, down to their modification time,
+	 * and keeps a file it would delete if it was changed and not committed.
+	 */
+	@Test
+	public void testRepeatedCheckoutSkipsCurrentFiles() throws Exception
+	{
+		String current = TESTING_DIR + "current.txt";
+		String changed = TESTING_DIR + "changed.txt";
+		createFile(current, "version 1");
+		gitletFast("init");
+		gitletFast("add", current);
+		gitletFast("commit", "version 1");
+		gitletFast("branch", "old");
+		writeFile(current, "version 2");
+		createFile(changed, "committed");
+		gitletFast("add", current);
+		gitletFast("add", changed);
+		gitletFast("commit", "version 2");
+
+		gitletFast("checkout", "1", current);
+		writeFile(changed, "not committed");
+		Thread.sleep(Index.RACY_WINDOW + 100);
+		long modified = new File(current).lastModified();
+		assertEquals("", gitletFast("checkout", "old"));
+		assertEquals(modified, new File(current).lastModified());
+		assertEquals("version 1", getText(current));
+		assertEquals("not committed", getText(changed));
+
+		gitletFast("checkout", "master");
+		assertEquals("version 2", getText(current));
+	}
+
+	/**
+	 * Tests that a file that cannot be stored fails the add, instead of being
+	 * reported as a file that does not exist, and that nothing is staged.
+	 */
+	@Test
+	public void testAddStorageFailure() throws IOException
+	{
+		String fileName = TESTING_DIR + "unstored.txt";
+		createFile(fileName, "cannot be stored");
+		gitletFast("init");
+		File tempDir = new File(OBJECT_DIR, "tmp");
+		recursiveDelete(tempDir);
+		createFile(tempDir.getPath(), "not a directory");
+
+		assertEquals("", gitletFast("add", fileName));
+		assertArrayEquals(new String[0], extractStagedFiles(gitletFast("status")));
+
+		tempDir.delete();
+		assertEquals("", gitletFast("add", fileName));
+		assertArrayEquals(new String[] { fileName }, extractStagedFiles(gitletFast("status")));
+	}
+
+	/**
+	 * Tests that a large tree is written the same with one thread as with
+	 * every core (at least four threads, since writes mostly wait on the file
+	 * system), and that the same write fails first however it is scheduled
+	 */
+	@Test
+	public void testParallelWrites() throws IOException
+	{
+		ObjectStore objects = new ObjectStore(new File(TESTING_DIR, "objects"));
+		objects.init();
+		TreeMap<String, String> files = parallelTree(objects);
+
+		int[] threads = { 1, Math.max(4, Runtime.getRuntime().availableProcessors()) };
+		for (int n : threads)
+		{
+			File root = new File(TESTING_DIR, "tree" + n);
+			ForkJoinPool pool = new ForkJoinPool(n);
+			Index index = new Index(new File(TESTING_DIR, "index" + n));
+			new WorkingTree(root, pool).writeFiles(files, objects, index);
+			pool.shutdown();
+			for (int i = 0; i < PARALLEL_FILES; i += 97)
+				assertEquals("contents " + i, getText(new File(root, "dir" + i % 50 + "/file" + i + ".txt").getPath()));
+			assertEquals(PARALLEL_FILES / 50, new File(root, "dir34").list().length);
+		}
+
+		// the same file fails first no matter how the writes are scheduled
+		for (int n : threads)
+		{
+			File root = new File(TESTING_DIR, "broken" + n);
+			root.mkdirs();
+			createFile(new File(root, "dir10").getPath(), "not a directory");
+			createFile(new File(root, "dir20").getPath(), "not a directory");
+			ForkJoinPool pool = new ForkJoinPool(n);
+			try
+			{
+				new WorkingTree(root, pool).writeFiles(files, objects, new Index(new File(root, "index")));
+				fail("writing into a file should fail");
+			}
+			catch (IOException e)
+			{
+				assertEquals("Could not write dir10/file10.txt", e.getMessage());
+				assertEquals(2 * PARALLEL_FILES / 50 - 1, e.getSuppressed().length);
+			}
+			pool.shutdown();
+			assertEquals("contents 1", getText(new File(root, "dir1/file1.txt").getPath()));
+		}
+	}
+
+	/**
+	 * Writes a large tree with one thread and then with every core, printing
+	 * how many files per second each one wrote. Not part of the suite, since
+	 * the numbers depend on the machine; remove the Ignore to run it.
+	 */
+	@Ignore
+	@Test
+	public void benchmarkParallelWrites() throws IOException
+	{
+		ObjectStore objects = new ObjectStore(new File(TESTING_DIR, "objects"));
+		objects.init();
+		TreeMap<String, String> files = parallelTree(objects);
+		for (int n : new int[] { 1, Math.max(4, Runtime.getRuntime().availableProcessors()) })
+		{
+			ForkJoinPool pool = new ForkJoinPool(n);
+			Index index = new Index(new File(TESTING_DIR, "index" + n));
+			long start = System.nanoTime();
+			new WorkingTree(new File(TESTING_DIR, "tree" + n), pool).writeFiles(files, objects, index);
+			long elapsed = System.nanoTime() - start;
+			pool.shutdown();
+			System.out.println(n + " thread(s): " + PARALLEL_FILES * 1000000000L / Math.max(elapsed, 1) + " files/s");
+		}
+	}
+
+	/**
+	 * Stores the contents of the tree written by testParallelWrites, spread
+	 * over 50 directories
+	 * 
+	 * @param objects
+	 *            store to put the contents in
+	 * @return the tree, from path to ID of the contents
+	 * @throws IOException
+	 */
+	private static TreeMap<String, String> parallelTree(ObjectStore objects) throws IOException
+	{
+		TreeMap<String, String> files = new TreeMap<String, String>();
+		for (int i = 0; i < PARALLEL_FILES; i++)
+			files.put("dir" + i % 50 + "/file" + i + ".txt", objects.put(("contents " + i).getBytes()));
+		return files;
+	}
+
+	/**
+	 * Tests that the gitlet.compression property sets how much new objects
+	 * are compressed.
+	 */
+	@Test
+	public void testCompressionLevel() throws IOException
+	{
+		String fileName = TESTING_DIR + "compressible.txt";
+		StringBuilder contents = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			contents.append("the same line over and over\n");
+		createFile(fileName, contents.toString());
+		String blobID = ObjectStore.hash(contents.toString().getBytes());
+		gitletFast("init");
+		System.setProperty(ObjectStore.LEVEL_PROPERTY, "0");
+		try
+		{
+			gitletFast("add", fileName);
+		}
+		finally
+		{
+			System.clearProperty(ObjectStore.LEVEL_PROPERTY);
+		}
+		File stored = new ObjectStore(new File(OBJECT_DIR)).getFile(blobID);
+		assertTrue(stored.length() > contents.length());
+
+		stored.delete();
+		gitletFast("add", fileName);
+		assertTrue(stored.length() * 10 < contents.length());
+	}
+
+	/**
+	 * Tests that gc packs every loose object and that packed versions can still be read.
+	 */
+	@Test
+	public void testGarbageCollect() throws IOException
+	{
+		String fileName = TESTING_DIR + "packed.txt";
+		createFile(fileName, "version 1");
+		gitletFast("init");
+		gitletFast("add", fileName);
+		gitletFast("commit", "version 1");
+		writeFile(fileName, "version 2");
+		gitletFast("add", fileName);
+		gitletFast("commit", "version 2");
+		gitletFast("gc");
+
+		File[] objectDirs = new File(OBJECT_DIR).listFiles();
+		for (File dir : objectDirs)
+			assertTrue(dir.getName().equals("pack") || dir.getName().equals("tmp"));
+		assertEquals(2, new File(OBJECT_DIR, "pack").listFiles().length);
+
+		gitletFast("checkout", "1", fileName);
+		assertEquals("version 1", getText(fileName));
+		writeFile(fileName, "version 3");
+		gitletFast("add", fileName);
+		gitletFast("commit", "version 3");
+		gitletFast("repack");
+		gitletFast("checkout", "2", fileName);
+		assertEquals("version 2", getText(fileName));
+		assertEquals(2, new File(OBJECT_DIR, "pack").listFiles().length);
+		Gitlet gitlet = loadGitlet();
+		assertEquals("version 3", getBlobText(gitlet, gitlet.getBranches().get("master").getBlobID(fileName)));
+	}
+
+	/**
+	 * Tests that add takes several files, directories and glob patterns at once.
+	 */
+	@Test
+	public void testBulkAdd() throws IOException
+	{
+		String single = TESTING_DIR + "single.txt";
+		String nested = TESTING_DIR + "dir/sub/nested.txt";
+		String other = TESTING_DIR + "dir/other.txt";
+		String matched = TESTING_DIR + "glob/matched.md";
+		String unmatched = TESTING_DIR + "glob/unmatched.txt";
+		new File(TESTING_DIR + "dir/sub").mkdirs();
+		new File(TESTING_DIR + "glob").mkdirs();
+		createFile(single, "single");
+		createFile(nested, "nested");
+		createFile(other, "other");
+		createFile(matched, "matched");
+		createFile(unmatched, "unmatched");
+		gitletFast("init");
+		String output = gitletFast("add", single, TESTING_DIR + "dir/", TESTING_DIR + "glob/*.md",
+				TESTING_DIR + "missing.txt");
+		assertEquals("File does not exist.", output);
+		assertArrayEquals(new String[] { other, nested, matched, single }, extractStagedFiles(gitletFast("status")));
+
+		gitletFast("commit", "bulk add");
+		Gitlet gitlet = loadGitlet();
+		assertEquals("nested", getBlobText(gitlet, gitlet.getBranches().get("master").getBlobID(nested)));
+
+		// status hashes the modified file without storing it, and add still
+		// has to store it
+		writeFile(other, "other again");
+		new File(other).setLastModified(System.currentTimeMillis() - 60000);
+		gitletFast("status");
+		gitletFast("add", TESTING_DIR + "dir");
+		gitletFast("commit", "modified");
+		gitlet = loadGitlet();
+		assertEquals("other again", getBlobText(gitlet, gitlet.getBranches().get("master").getBlobID(other)));
+	}
+
+	/**
+	 * Tests that a commit that cannot be stored leaves the branch and the
+	 * staging area as they were, so the repository can still be loaded and
+	 * the commit made again
+	 */
+	@Test
+	public void testFailedCommit() throws IOException
+	{
+		String fileName = TESTING_DIR + "a";
+		createFile(fileName, "1");
+		gitletFast("init");
+		gitletFast("add", fileName);
+		File records = new File(COMMIT_DIR + "records");
+		File moved = new File(COMMIT_DIR + "moved");
+		assertTrue(records.renameTo(moved));
+		assertTrue(records.mkdir());
+
+		PrintStream originalErr = System.err;
+		System.setErr(new PrintStream(new ByteArrayOutputStream()));
+		try
+		{
+			gitletFast("commit", "not stored");
+		}
+		finally
+		{
+			System.setErr(originalErr);
+		}
+		assertTrue(records.delete());
+		assertTrue(moved.renameTo(records));
+		assertArrayEquals(new String[] { "initial commit" }, extractCommitMessages(gitletFast("log")));
+		assertArrayEquals(new String[] { fileName }, extractStagedFiles(gitletFast("status")));
+
+		gitletFast("commit", "stored");
+		assertArrayEquals(new String[] { "stored", "initial commit" }, extractCommitMessages(gitletFast("log")));
+		assertArrayEquals(new String[0], extractStagedFiles(gitletFast("status")));
+	}
+
+	/**
+	 * Tests that a command that stops partway leaves the repository as it was
+	 * before the command or as it is after it: commits that no ref points to
+	 * yet are forgotten, a journal that was written in full is applied the
+	 * next time the repository is changed, and one that was cut short is
+	 * thrown away.
+	 */
+	@Test
+	public void testCrashRecovery() throws IOException
+	{
+		String a = TESTING_DIR + "a";
+		gitletFast("init");
+		createFile(a, "1");
+		gitletFast("add", a);
+		gitletFast("commit", "first");
+
+		// the commit record is written, but the command stops before saving
+		Gitlet gitlet = loadGitlet();
+		writeFile(a, "lost");
+		gitlet.add(a);
+		gitlet.commit("lost");
+		assertArrayEquals(new String[] { "first", "initial commit" }, extractCommitMessages(gitletFast("log")));
+		writeFile(a, "2");
+		gitletFast("add", a);
+		gitletFast("commit", "second");
+		assertArrayEquals(new String[] { "second", "first", "initial commit" },
+				extractCommitMessages(gitletFast("log")));
+		gitlet = loadGitlet();
+		assertEquals("2", getBlobText(gitlet, gitlet.getBranches().get("master").getBlobID(a)));
+
+		// the journal is written, but none of the files are replaced yet
+		File refsFile = new File(GITLET_DIR + "refs");
+		byte[] oldRefs = Files.readAllBytes(refsFile.toPath());
+		gitlet.branch("recovered");
+		gitlet.save();
+		Journal journal = new Journal();
+		journal.write(refsFile, Files.readAllBytes(refsFile.toPath()));
+		Files.write(refsFile.toPath(), oldRefs);
+		assertTrue(journal.prepare());
+		// a command that only reads takes the refs from the journal, and the
+		// next command that changes the repository applies it
+		assertTrue(gitletFast("status").contains("recovered"));
+		assertTrue(new File(GITLET_DIR + "journal").exists());
+		gitletFast("branch", "after");
+		assertFalse(new File(GITLET_DIR + "journal").exists());
+		assertTrue(gitletFast("status").contains("recovered"));
+
+		// the journal is cut short before it is complete
+		gitlet = loadGitlet();
+		oldRefs = Files.readAllBytes(refsFile.toPath());
+		gitlet.branch("torn");
+		gitlet.save();
+		journal = new Journal();
+		journal.write(refsFile, Files.readAllBytes(refsFile.toPath()));
+		Files.write(refsFile.toPath(), oldRefs);
+		journal.prepare();
+		File journalFile = new File(GITLET_DIR + "journal");
+		byte[] written = Files.readAllBytes(journalFile.toPath());
+		Files.write(journalFile.toPath(), Arrays.copyOf(written, written.length - 1));
+		assertFalse(gitletFast("status").contains("torn"));
+		gitletFast("branch", "later");
+		String status = gitletFast("status");
+		assertTrue(status.contains("recovered"));
+		assertFalse(status.contains("torn"));
+		assertFalse(journalFile.exists());
+	}
+
+	/**
+	 * Tests that commands run by different processes at the same time do not
+	 * lose each other's changes, and that commands that only read the
+	 * repository run while another command holds the lock.
+	 */
+	@Test
+	public void testConcurrentCommands() throws Exception
+	{
+		gitletFast("init");
+		Thread[] threads = new Thread[2];
+		for (int t = 0; t < threads.length; t++)
+		{
+			final int thread = t;
+			threads[t] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					for (int i = 0; i < 5; i++)
+						gitlet("branch", "b" + thread + "-" + i);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		String status = gitletFast("status");
+		for (int t = 0; t < threads.length; t++)
+			for (int i = 0; i < 5; i++)
+				assertTrue(status.contains("b" + t + "-" + i));
+
+		// a command that changes the repository waits for the lock, and one
+		// that only reads does not
+		final String[] branched = new String[1];
+		Thread writer;
+		FileChannel lock = Gitlet.lock();
+		try
+		{
+			writer = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					branched[0] = gitlet("branch", "waited");
+				}
+			});
+			writer.start();
+			assertTrue(gitlet("log").contains("initial commit"));
+			assertFalse(gitlet("status").contains("waited"));
+			assertTrue(writer.isAlive());
+		}
+		finally
+		{
+			lock.close();
+		}
+		writer.join();
+		assertEquals("", branched[0]);
+		assertTrue(gitletFast("status").contains("waited"));
+	}
+
+	/**
+	 * Tests that commands sent to a running daemon behave as they do without it.
+	 */
+	@Test
+	public void testDaemon() throws Exception
+	{
+		String fileName = TESTING_DIR + "served.txt";
+		createFile(fileName, "served");
+		gitletFast("init");
+		Thread daemon = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				new Daemon().serve();
+			}
+		});
+		daemon.start();
+		for (int i = 0; i < 100 && !new File(GITLET_DIR + "daemon.sock").exists(); i++)
+			Thread.sleep(50);
+
+		gitletFast("add", fileName);
+		gitletFast("commit", "committed by the daemon");
+		assertTrue(gitletFast("log").contains("committed by the daemon"));
+		assertEquals("A gitlet daemon is already running.", gitletFast("daemon"));
+
+		// a change made without the daemon is picked up by its next command
+		Gitlet gitlet = loadGitlet();
+		gitlet.branch("outside");
+		gitlet.save();
+		assertTrue(gitletFast("status").contains("outside"));
+
+		assertEquals("Stopped serving gitlet commands.", gitletFast("daemon-stop"));
+		daemon.join(5000);
+		assertFalse(daemon.isAlive());
+		assertFalse(new File(GITLET_DIR + "daemon.sock").exists());
+		assertEquals("No gitlet daemon is running.", gitletFast("daemon-stop"));
+	}
+
+	/**
+	 * Tests that a file written by checkout, which the index cannot trust
+	 * right after writing it, is trusted by the commands run once the racy
+	 * window has passed.
+	 */
+	@Test
+	public void testRacyEntriesAreRecordedAgain() throws Exception
+	{
+		String fileName = TESTING_DIR + "racy.txt";
+		File file = new File(fileName);
+		createFile(fileName, "version 1");
+		gitletFast("init");
+		gitletFast("add", fileName);
+		gitletFast("commit", "version 1");
+		writeFile(fileName, "version 2");
+		gitletFast("add", fileName);
+		gitletFast("commit", "version 2");
+
+		gitletFast("checkout", "1", fileName);
+		Index index = new Index();
+		index.load();
+		assertNull(index.getBlobID(fileName, file));
+		assertTrue(index.getRacy().isEmpty());
+
+		Thread.sleep(Index.RACY_WINDOW + 100);
+		assertEquals(Arrays.asList(fileName), index.getRacy());
+		gitletFast("branch", "later");
+		index.load();
+		assertEquals(ObjectStore.hash("version 1".getBytes()), index.getBlobID(fileName, file));
+		assertTrue(index.getRacy().isEmpty());
+	}
+
+	/**
+	 * Tests that status, which only reads the repository, saves the stat of
+	 * the files it had to read when no other command holds the lock, and
+	 * neither waits for the lock nor saves when one does.
+	 */
+	@Test
+	public void testStatusSavesRecordedStats() throws Exception
+	{
+		String fileName = TESTING_DIR + "status.txt";
+		File file = new File(fileName);
+		createFile(fileName, "version 1");
+		gitletFast("init");
+		gitletFast("add", fileName);
+		gitletFast("commit", "version 1");
+		writeFile(fileName, "version 2");
+		gitletFast("add", fileName);
+		gitletFast("commit", "version 2");
+		gitletFast("checkout", "1", fileName);
+		Thread.sleep(Index.RACY_WINDOW + 100);
+
+		Index index = new Index();
+		FileChannel lock = Gitlet.lock();
+		try
+		{
+			assertTrue(gitletFast("status").contains(fileName + " (modified)"));
+		}
+		finally
+		{
+			lock.close();
+		}
+		index.load();
+		assertNull(index.getBlobID(fileName, file));
+
+		assertTrue(gitletFast("status").contains(fileName + " (modified)"));
+		index.load();
+		assertEquals(ObjectStore.hash("version 1".getBytes()), index.getBlobID(fileName, file));
+		assertEquals("", gitletFast("branch", "later"));
+	}
+
+	/**
+	 * Tests that the index trusts the stat of a file that has not changed since
+	 * it was recorded, and does not trust a file that changed or that was
+	 * modified too recently before being recorded to tell.
+	 */
+	@Test
+	public void testIndexStatCache() throws IOException
+	{
+		String fileName = TESTING_DIR + "stat.txt";
+		createFile(fileName, "some contents");
+		File file = new File(fileName);
+		file.setLastModified(System.currentTimeMillis() - 60000);
+		Index index = new Index(new File(TESTING_DIR, "index"));
+		index.update(fileName, file, "blob");
+		assertEquals("blob", index.getBlobID(fileName, file));
+		Journal journal = new Journal(new File(TESTING_DIR, "journal"));
+		index.save(journal);
+		journal.commit();
+
+		Index reloaded = new Index(new File(TESTING_DIR, "index"));
+		reloaded.load();
+		assertEquals("blob", reloaded.getBlobID(fileName, file));
+		writeFile(fileName, "some other contents");
+		assertNull(reloaded.getBlobID(fileName, file));
+
+		reloaded.update(fileName, file, "other blob");
+		assertNull(reloaded.getBlobID(fileName, file));
+		reloaded.remove(fileName);
+		file.setLastModified(System.currentTimeMillis() - 60000);
+		assertNull(reloaded.getBlobID(fileName, file));
+	}
+
 	/**
 	 * Tests add, making sure that the file is added to the staging folder. Also checks if an 
 	 * error message is printed if there is no file with the name
@@ -649,8 +1613,7 @@ public class GitletTest
 		createFile(fileName, testFile);
 		gitlet("init");
 		gitlet("add", fileName);
-		File f = new File(GITLET_DIR + "staging/" + fileName);
-		assertTrue(f.exists());
+		assertArrayEquals(new String[] { fileName }, extractStagedFiles(gitlet("status")));
 		
 		outContent.reset();
 		gitlet("add", "doesnotexist.txt");
@@ -0,0 +1,135 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Histogram diff: each region of the two sequences is split around the
+ * longest run of common lines that contains the line of the first sequence
+ * that occurs least often in the region, and the parts before and after the
+ * run are diffed the same way. Splitting on rare lines lines up changes
+ * with the lines a reader would match them with, such as the start of each
+ * function, where a shortest edit script may match blank lines and braces
+ * instead. Regions with no line rare enough to split on are diffed with
+ * Myers' algorithm.
+ */
+public class HistogramDiff implements DiffAlgorithm
+{
+	// lines that occur more often than this in a region are not split on
+	private static final int	MAX_CHAIN	= 64;
+
+	/**
+	 * Finds a list of edits that turns a into b, splitting on rare lines
+	 * 
+	 * @param a
+	 *            numbered lines of the first sequence
+	 * @param b
+	 *            numbered lines of the second sequence
+	 * @return the edits, in order; lines between them are the same in both
+	 */
+	public List<Edit> diff(int[] a, int[] b)
+	{
+		boolean[] changedA = new boolean[a.length];
+		boolean[] changedB = new boolean[b.length];
+		// regions left to diff, as start and end in a then in b; kept on a
+		// stack rather than recursed into, since a file with many small
+		// changes splits into as many regions
+		ArrayDeque<int[]> regions = new ArrayDeque<int[]>();
+		regions.push(new int[] { 0, a.length, 0, b.length });
+		while (!regions.isEmpty())
+		{
+			int[] region = regions.pop();
+			int aLo = region[0];
+			int aHi = region[1];
+			int bLo = region[2];
+			int bHi = region[3];
+			while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo])
+			{
+				aLo++;
+				bLo++;
+			}
+			while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1])
+			{
+				aHi--;
+				bHi--;
+			}
+			if (aLo == aHi || bLo == bHi)
+			{
+				for (int i = aLo; i < aHi; i++)
+					changedA[i] = true;
+				for (int i = bLo; i < bHi; i++)
+					changedB[i] = true;
+				continue;
+			}
+			int[] run = findRun(a, b, aLo, aHi, bLo, bHi);
+			if (run == null)
+			{
+				MyersDiff.compare(a, b, changedA, changedB, aLo, aHi, bLo, bHi);
+				continue;
+			}
+			regions.push(new int[] { run[1], aHi, run[3], bHi });
+			regions.push(new int[] { aLo, run[0], bLo, run[2] });
+		}
+		return Edit.fromChanged(changedA, changedB);
+	}
+
+	/**
+	 * Finds the longest run of lines common to a[aLo, aHi) and b[bLo, bHi)
+	 * around the line of a that occurs least often in its region
+	 * 
+	 * @return start of the run in a, end in a, start in b and end in b, or
+	 *         null if no line of b's region occurs at most MAX_CHAIN times in
+	 *         a's region
+	 */
+	private static int[] findRun(int[] a, int[] b, int aLo, int aHi, int bLo, int bHi)
+	{
+		// key is a line, value is where it is in a's region
+		HashMap<Integer, ArrayList<Integer>> positions = new HashMap<Integer, ArrayList<Integer>>();
+		for (int i = aLo; i < aHi; i++)
+		{
+			ArrayList<Integer> at = positions.get(a[i]);
+			if (at == null)
+			{
+				at = new ArrayList<Integer>(1);
+				positions.put(a[i], at);
+			}
+			at.add(i);
+		}
+		int[] best = null;
+		int bestCount = MAX_CHAIN;
+		for (int j = bLo; j < bHi; j++)
+		{
+			ArrayList<Integer> at = positions.get(b[j]);
+			if (at == null || at.size() > bestCount)
+				continue;
+			int furthest = j + 1;
+			for (int i : at)
+			{
+				int startA = i;
+				int startB = j;
+				while (startA > aLo && startB > bLo && a[startA - 1] == b[startB - 1])
+				{
+					startA--;
+					startB--;
+				}
+				int endA = i + 1;
+				int endB = j + 1;
+				while (endA < aHi && endB < bHi && a[endA] == b[endB])
+				{
+					endA++;
+					endB++;
+				}
+				if (best == null || at.size() < bestCount || endA - startA > best[1] - best[0])
+				{
+					best = new int[] { startA, endA, startB, endB };
+					bestCount = at.size();
+				}
+				furthest = Math.max(furthest, endB);
+			}
+			// the lines of b up to the end of the runs just found would only
+			// find the same runs again
+			j = furthest - 1;
+		}
+		return best;
+	}
+}
@@ -0,0 +1,392 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Remembers what each file in the working directory looked like the last time
+ * gitlet read or wrote it: its size, modification time and file key (device
+ * and inode), along with the blob ID of its contents. As long as a file's
+ * stat still matches, its contents are known without reading the file.
+ * 
+ * The index is also the staging area: a hash map from the path of each file
+ * staged for the next commit to its staged blob ID, or to null when the file
+ * is marked to be removed by the next commit. Looking a path up is constant
+ * time however many files are staged; only output sorts them.
+ */
+public class Index
+{
+	// a file modified this close to when it was recorded could be modified
+	// again without its modification time changing, so it is not trusted
+	// until it is recorded again
+	static final long				RACY_WINDOW	= 2000;
+
+	private final File				INDEX_FILE;
+	// key is the path of the file
+	private HashMap<String, Entry>	entries;
+	// key is the path of a staged file
+	// value is the ID of its staged blob, or null if it is marked for removal
+	private HashMap<String, String>	staged;
+	private boolean					changed;	// true if entries or staged
+												// need to be saved
+	private String					id;			// SHA-1 of the index file as
+												// last loaded or saved, empty
+												// if there is none yet
+
+	/**
+	 * Stat of a file together with the blob ID of its contents
+	 */
+	private static class Entry
+	{
+		long	size;
+		long	modified;
+		String	fileKey;
+		String	blobID;
+		long	recorded;	// when the stat was taken
+	}
+
+	/**
+	 * Constructs an index kept in the default .gitlet/index file
+	 */
+	public Index()
+	{
+		this(new File(".gitlet/index"));
+	}
+
+	/**
+	 * Constructs an index kept in the given file
+	 * 
+	 * @param file
+	 *            file holding the index
+	 */
+	public Index(File file)
+	{
+		INDEX_FILE = file;
+		entries = new HashMap<String, Entry>();
+		staged = new HashMap<String, String>();
+		id = "";
+	}
+
+	/**
+	 * reads the entries saved by the last command, if any
+	 * 
+	 * @throws IOException
+	 */
+	public void load() throws IOException
+	{
+		if (INDEX_FILE.exists())
+			load(Files.readAllBytes(INDEX_FILE.toPath()));
+		else
+		{
+			entries.clear();
+			staged.clear();
+			id = "";
+		}
+	}
+
+	/**
+	 * reads the entries from the contents of an index file
+	 * 
+	 * @param bytes
+	 *            contents of the index file
+	 * @throws IOException
+	 */
+	public void load(byte[] bytes) throws IOException
+	{
+		entries.clear();
+		staged.clear();
+		id = ObjectStore.hash(bytes);
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes)))
+		{
+			for (int i = in.readInt(); i > 0; i--)
+			{
+				String path = in.readUTF();
+				Entry entry = new Entry();
+				entry.size = in.readLong();
+				entry.modified = in.readLong();
+				entry.fileKey = in.readUTF();
+				entry.blobID = in.readUTF();
+				entry.recorded = in.readLong();
+				entries.put(path, entry);
+			}
+			for (int i = in.readInt(); i > 0; i--)
+			{
+				String path = in.readUTF();
+				staged.put(path, in.readBoolean() ? in.readUTF() : null);
+			}
+		}
+	}
+
+	/**
+	 * hands the entries to a journal if any of them changed since they were
+	 * loaded, so the index file is replaced when the journal commits
+	 * 
+	 * @param journal
+	 *            the journal of the repository
+	 * @throws IOException
+	 */
+	public void save(Journal journal) throws IOException
+	{
+		if (!changed)
+			return;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(entries.size());
+		for (Map.Entry<String, Entry> e : entries.entrySet())
+		{
+			Entry entry = e.getValue();
+			out.writeUTF(e.getKey());
+			out.writeLong(entry.size);
+			out.writeLong(entry.modified);
+			out.writeUTF(entry.fileKey);
+			out.writeUTF(entry.blobID);
+			out.writeLong(entry.recorded);
+		}
+		out.writeInt(staged.size());
+		for (Map.Entry<String, String> file : staged.entrySet())
+		{
+			out.writeUTF(file.getKey());
+			out.writeBoolean(file.getValue() != null);
+			if (file.getValue() != null)
+				out.writeUTF(file.getValue());
+		}
+		byte[] contents = bytes.toByteArray();
+		journal.write(INDEX_FILE, contents);
+		id = ObjectStore.hash(contents);
+		changed = false;
+	}
+
+	/**
+	 * @return true if any entry or staged file changed since the index was
+	 *         loaded or saved
+	 */
+	public boolean hasChanged()
+	{
+		return changed;
+	}
+
+	/**
+	 * @return SHA-1 of the contents of the index file as last loaded or saved,
+	 *         or an empty string if there is no index file yet
+	 */
+	public String getID()
+	{
+		return id;
+	}
+
+	/**
+	 * @return the file holding the index
+	 */
+	public File getFile()
+	{
+		return INDEX_FILE;
+	}
+
+	/**
+	 * Finds the blob ID of the contents of a file from its stat alone
+	 * 
+	 * @param path
+	 *            path of the file as tracked by gitlet
+	 * @param file
+	 *            the file in the working directory
+	 * @return blob ID of the file's contents, or null if the file changed (or
+	 *         might have changed) since it was recorded and has to be read
+	 */
+	public String getBlobID(String path, File file)
+	{
+		Entry entry = entries.get(path);
+		if (entry == null || entry.modified >= entry.recorded - RACY_WINDOW)
+			return null;
+		try
+		{
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			if (attributes.size() == entry.size && attributes.lastModifiedTime().toMillis() == entry.modified
+					&& fileKey(attributes).equals(entry.fileKey))
+				return entry.blobID;
+		}
+		catch (IOException e)
+		{
+			// the file is gone, so there is nothing to return
+		}
+		return null;
+	}
+
+	/**
+	 * Records the current stat of a file whose contents are known to be the
+	 * blob with the given ID
+	 * 
+	 * @param path
+	 *            path of the file as tracked by gitlet
+	 * @param file
+	 *            the file in the working directory
+	 * @param blobID
+	 *            blob ID of the file's contents
+	 * @throws IOException
+	 */
+	public void update(String path, File file, String blobID) throws IOException
+	{
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		Entry entry = new Entry();
+		entry.size = attributes.size();
+		entry.modified = attributes.lastModifiedTime().toMillis();
+		entry.fileKey = fileKey(attributes);
+		entry.blobID = blobID;
+		entry.recorded = System.currentTimeMillis();
+		entries.put(path, entry);
+		changed = true;
+	}
+
+	/**
+	 * Finds the files that are not trusted because they were recorded too
+	 * soon after they were modified, but were last modified long enough ago
+	 * that recording them again now would be trusted. Files gitlet writes are
+	 * recorded right after they are written, so they are all racy at first.
+	 * 
+	 * @return paths of the files, in no particular order
+	 */
+	public ArrayList<String> getRacy()
+	{
+		long trusted = System.currentTimeMillis() - RACY_WINDOW;
+		ArrayList<String> racy = new ArrayList<String>();
+		for (Map.Entry<String, Entry> e : entries.entrySet())
+		{
+			Entry entry = e.getValue();
+			if (entry.modified >= entry.recorded - RACY_WINDOW && entry.modified < trusted)
+				racy.add(e.getKey());
+		}
+		return racy;
+	}
+
+	/**
+	 * Forgets the stat of a file
+	 * 
+	 * @param path
+	 *            path of the file as tracked by gitlet
+	 */
+	public void remove(String path)
+	{
+		if (entries.remove(path) != null)
+			changed = true;
+	}
+
+	/**
+	 * Stages a version of a file for the next commit
+	 * 
+	 * @param path
+	 *            path of the file as tracked by gitlet
+	 * @param blobID
+	 *            blob ID of the version to commit, or null to mark the file
+	 *            for removal
+	 */
+	public void stage(String path, String blobID)
+	{
+		staged.put(path, blobID);
+		changed = true;
+	}
+
+	/**
+	 * Marks a file to be removed by the next commit
+	 * 
+	 * @param path
+	 *            path of the file as tracked by gitlet
+	 */
+	public void markRemoved(String path)
+	{
+		stage(path, null);
+	}
+
+	/**
+	 * Unstages a file, or unmarks it for removal
+	 * 
+	 * @param path
+	 *            path of the file as tracked by gitlet
+	 */
+	public void unstage(String path)
+	{
+		if (staged.containsKey(path))
+		{
+			staged.remove(path);
+			changed = true;
+		}
+	}
+
+	/**
+	 * @param path
+	 *            path of the file as tracked by gitlet
+	 * @return true if a version of the file is staged
+	 */
+	public boolean isStaged(String path)
+	{
+		return staged.get(path) != null;
+	}
+
+	/**
+	 * @param path
+	 *            path of the file as tracked by gitlet
+	 * @return true if the file is marked for removal
+	 */
+	public boolean isMarkedRemoved(String path)
+	{
+		return staged.containsKey(path) && staged.get(path) == null;
+	}
+
+	/**
+	 * @return true if any file is staged or marked for removal
+	 */
+	public boolean hasStagedChanges()
+	{
+		return !staged.isEmpty();
+	}
+
+	/**
+	 * @return map of the path of every staged file to its staged blob ID, with
+	 *         null for files marked for removal, in no particular order
+	 */
+	public Map<String, String> getStagedChanges()
+	{
+		return Collections.unmodifiableMap(staged);
+	}
+
+	/**
+	 * @return map of the path of every staged file to its staged blob ID, in
+	 *         order
+	 */
+	public TreeMap<String, String> getStaged()
+	{
+		TreeMap<String, String> files = new TreeMap<String, String>();
+		for (Map.Entry<String, String> file : staged.entrySet())
+			if (file.getValue() != null)
+				files.put(file.getKey(), file.getValue());
+		return files;
+	}
+
+	/**
+	 * @return paths of the files marked for removal, in order
+	 */
+	public TreeSet<String> getMarkedRemoved()
+	{
+		TreeSet<String> files = new TreeSet<String>();
+		for (Map.Entry<String, String> file : staged.entrySet())
+			if (file.getValue() == null)
+				files.add(file.getKey());
+		return files;
+	}
+
+	/**
+	 * Empties the staging area, once its changes are committed
+	 */
+	public void clearStaged()
+	{
+		if (staged.isEmpty())
+			return;
+		staged.clear();
+		changed = true;
+	}
+
+	private static String fileKey(BasicFileAttributes attributes)
+	{
+		// device and inode on Unix, not available everywhere
+		Object key = attributes.fileKey();
+		return key == null ? "" : key.toString();
+	}
+}
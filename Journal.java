@@ -0,0 +1,242 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.*;
+
+/**
+ * Makes the changes a command saves to the repository all happen or not at
+ * all, even if the command is killed or the machine goes down halfway.
+ * 
+ * A command first writes its new objects and commit records, which nothing
+ * refers to yet, and tells the journal about each file it wrote. When the
+ * command saves, the journal syncs all of those files to disk in one batch,
+ * then writes the new contents of every file the save replaces (the refs and
+ * the index) to .gitlet/journal, followed by a checksum, and syncs that one
+ * file. Only then are the files replaced, each by renaming a temporary copy
+ * over it, and the journal is deleted once they are on disk. A command that
+ * dies before the journal is complete leaves the old files as they were; one
+ * that dies after leaves a journal that recover applies again the next time
+ * the repository is opened.
+ */
+public class Journal
+{
+	private final File						JOURNAL_FILE;
+	// files written since the last commit, synced before the journal is
+	// written; a set, so a file written many times is synced only once
+	private LinkedHashSet<File>				written;
+	// key is a file to replace, value is its new contents
+	private LinkedHashMap<File, byte[]>		updates;
+
+	/**
+	 * Constructs a journal kept in the default .gitlet/journal file
+	 */
+	public Journal()
+	{
+		this(new File(".gitlet/journal"));
+	}
+
+	/**
+	 * Constructs a journal kept in the given file
+	 * 
+	 * @param file
+	 *            file to write the journal to
+	 */
+	public Journal(File file)
+	{
+		JOURNAL_FILE = file;
+		written = new LinkedHashSet<File>();
+		updates = new LinkedHashMap<File, byte[]>();
+	}
+
+	/**
+	 * Notes that a file was written, so that it is synced to disk before the
+	 * next commit of the journal, together with the directory it is in. Files
+	 * may be written by several threads at once.
+	 * 
+	 * @param file
+	 *            file that was written or created
+	 */
+	public synchronized void written(File file)
+	{
+		written.add(file);
+		if (file.getParentFile() != null)
+			written.add(file.getParentFile());
+	}
+
+	/**
+	 * Replaces the contents of a file on the next commit of the journal
+	 * 
+	 * @param file
+	 *            file to replace
+	 * @param contents
+	 *            new contents of the file
+	 */
+	public void write(File file, byte[] contents)
+	{
+		updates.put(file, contents);
+	}
+
+	/**
+	 * Syncs every file that was written, then replaces every file given to
+	 * write, all at once as far as any later command can tell
+	 * 
+	 * @throws IOException
+	 */
+	public void commit() throws IOException
+	{
+		if (!prepare())
+			return;
+		apply(updates);
+		updates.clear();
+	}
+
+	/**
+	 * Syncs every file that was written and writes the journal, without
+	 * replacing any file yet
+	 * 
+	 * @return true if there are files to replace
+	 * @throws IOException
+	 */
+	synchronized boolean prepare() throws IOException
+	{
+		for (File file : written)
+			force(file);
+		written.clear();
+		if (updates.isEmpty())
+			return false;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(updates.size());
+		for (Map.Entry<File, byte[]> update : updates.entrySet())
+		{
+			out.writeUTF(update.getKey().getPath());
+			out.writeInt(update.getValue().length);
+			out.write(update.getValue());
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeLong(crc.getValue());
+		try (FileOutputStream journal = new FileOutputStream(JOURNAL_FILE))
+		{
+			bytes.writeTo(journal);
+			journal.getFD().sync();
+		}
+		force(JOURNAL_FILE.getParentFile());
+		return true;
+	}
+
+	/**
+	 * Finishes the save of a command that did not get to replace all of its
+	 * files, or throws away the journal of one that did not get to finish
+	 * writing it
+	 * 
+	 * @return true if a journal was applied
+	 * @throws IOException
+	 */
+	public boolean recover() throws IOException
+	{
+		if (!JOURNAL_FILE.exists())
+			return false;
+		LinkedHashMap<File, byte[]> toApply = read();
+		if (toApply != null)
+			apply(toApply);
+		else
+			JOURNAL_FILE.delete();
+		return toApply != null;
+	}
+
+	/**
+	 * Reads the journal of a save that has not finished replacing its files.
+	 * Reading it does not need the repository to be locked, since the
+	 * journal is written in full before any file is replaced.
+	 * 
+	 * @return the files the save replaces and their new contents, or null if
+	 *         there is no journal or it was cut short
+	 * @throws IOException
+	 */
+	public LinkedHashMap<File, byte[]> read() throws IOException
+	{
+		byte[] bytes;
+		try
+		{
+			bytes = Files.readAllBytes(JOURNAL_FILE.toPath());
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+		if (bytes.length < 8)
+			return null;
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 8);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		in.skipBytes(bytes.length - 8);
+		if (in.readLong() != crc.getValue())
+			return null;
+
+		in = new DataInputStream(new ByteArrayInputStream(bytes));
+		LinkedHashMap<File, byte[]> toApply = new LinkedHashMap<File, byte[]>();
+		for (int i = in.readInt(); i > 0; i--)
+		{
+			File file = new File(in.readUTF());
+			byte[] contents = new byte[in.readInt()];
+			in.readFully(contents);
+			toApply.put(file, contents);
+		}
+		return toApply;
+	}
+
+	/**
+	 * Replaces each file by renaming a copy of its new contents over it,
+	 * then deletes the journal once all of them are on disk
+	 */
+	private void apply(Map<File, byte[]> toApply) throws IOException
+	{
+		LinkedHashSet<File> toSync = new LinkedHashSet<File>();
+		for (Map.Entry<File, byte[]> update : toApply.entrySet())
+		{
+			File file = update.getKey();
+			File temp = new File(file.getPath() + ".tmp");
+			try (FileOutputStream out = new FileOutputStream(temp))
+			{
+				out.write(update.getValue());
+			}
+			Files.move(temp.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+			toSync.add(file);
+			if (file.getParentFile() != null)
+				toSync.add(file.getParentFile());
+		}
+		for (File file : toSync)
+			force(file);
+		JOURNAL_FILE.delete();
+	}
+
+	/**
+	 * Syncs the contents of a file, or the entries of a directory, to disk
+	 * 
+	 * @param file
+	 *            file or directory to sync
+	 * @throws IOException
+	 */
+	public static void force(File file) throws IOException
+	{
+		if (!file.exists())
+			return;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			channel.force(true);
+		}
+		catch (IOException e)
+		{
+			// not every platform can open a directory to sync it
+			if (!file.isDirectory())
+				throw e;
+		}
+	}
+}
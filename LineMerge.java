@@ -0,0 +1,168 @@
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Three-way merge of two versions of a file that both changed since a common
+ * base version. Each version is diffed against the base line by line, and
+ * the edits of both are walked in order of where they are in the base. Edits
+ * that overlap or touch are grouped into one chunk; a chunk only one side
+ * changed takes that side's lines, a chunk both sides changed the same way
+ * takes those lines once, and any other chunk is a conflict written out
+ * between conflict markers. Lines neither side changed are copied from the
+ * base.
+ */
+public class LineMerge
+{
+	private final byte[]	contents;
+	private final boolean	conflicting;
+
+	private LineMerge(byte[] contents, boolean conflicting)
+	{
+		this.contents = contents;
+		this.conflicting = conflicting;
+	}
+
+	/**
+	 * Merges the changes two versions of a file made to their base version
+	 * 
+	 * @param base
+	 *            contents of the common version
+	 * @param ours
+	 *            contents of the version on the current branch
+	 * @param theirs
+	 *            contents of the version on the branch being merged
+	 * @param oursName
+	 *            name of the current branch, for the conflict markers
+	 * @param theirsName
+	 *            name of the branch being merged, for the conflict markers
+	 * @param algorithm
+	 *            how to find the lines each version changed
+	 * @return the merged file
+	 */
+	public static LineMerge merge(byte[] base, byte[] ours, byte[] theirs, String oursName, String theirsName,
+			DiffAlgorithm algorithm)
+	{
+		List<String> baseLines = Lines.split(base);
+		List<String> oursLines = Lines.split(ours);
+		List<String> theirsLines = Lines.split(theirs);
+		int[][] numbered = Lines.number(Arrays.asList(baseLines, oursLines, theirsLines));
+		List<Edit> oursEdits = algorithm.diff(numbered[0], numbered[1]);
+		List<Edit> theirsEdits = algorithm.diff(numbered[0], numbered[2]);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(ours.length, theirs.length));
+		boolean conflicting = false;
+		int copied = 0;	// lines of base written out so far
+		int o = 0;
+		int t = 0;
+		while (o < oursEdits.size() || t < theirsEdits.size())
+		{
+			// start the chunk with whichever edit comes first in base, then
+			// take in every edit of either side that overlaps or touches it
+			int firstO = o;
+			int firstT = t;
+			int start;
+			int end;
+			if (t == theirsEdits.size()
+					|| (o < oursEdits.size() && oursEdits.get(o).getBeginA() <= theirsEdits.get(t).getBeginA()))
+			{
+				start = oursEdits.get(o).getBeginA();
+				end = oursEdits.get(o++).getEndA();
+			}
+			else
+			{
+				start = theirsEdits.get(t).getBeginA();
+				end = theirsEdits.get(t++).getEndA();
+			}
+			while (true)
+			{
+				if (o < oursEdits.size() && oursEdits.get(o).getBeginA() <= end)
+					end = Math.max(end, oursEdits.get(o++).getEndA());
+				else if (t < theirsEdits.size() && theirsEdits.get(t).getBeginA() <= end)
+					end = Math.max(end, theirsEdits.get(t++).getEndA());
+				else
+					break;
+			}
+
+			write(out, baseLines, copied, start);
+			copied = end;
+			int[] oursRegion = region(oursEdits, firstO, o, start, end);
+			int[] theirsRegion = region(theirsEdits, firstT, t, start, end);
+			if (firstO == o)
+				write(out, theirsLines, theirsRegion[0], theirsRegion[1]);
+			else if (firstT == t
+					|| Arrays.equals(numbered[1], oursRegion[0], oursRegion[1], numbered[2], theirsRegion[0],
+							theirsRegion[1]))
+				write(out, oursLines, oursRegion[0], oursRegion[1]);
+			else
+			{
+				conflicting = true;
+				writeMarker(out, "<<<<<<< " + oursName);
+				writeConflict(out, oursLines, oursRegion[0], oursRegion[1]);
+				writeMarker(out, "=======");
+				writeConflict(out, theirsLines, theirsRegion[0], theirsRegion[1]);
+				writeMarker(out, ">>>>>>> " + theirsName);
+			}
+		}
+		write(out, baseLines, copied, baseLines.size());
+		return new LineMerge(out.toByteArray(), conflicting);
+	}
+
+	/**
+	 * @return the merged contents, with conflict markers around every
+	 *         conflict
+	 */
+	public byte[] getContents()
+	{
+		return contents;
+	}
+
+	/**
+	 * @return true if both versions changed some lines in different ways
+	 */
+	public boolean hasConflicts()
+	{
+		return conflicting;
+	}
+
+	/**
+	 * Finds the lines of one side that replace lines [start, end) of base,
+	 * given the edits of that side that are in the chunk
+	 * 
+	 * @return the first line of the region and the line after it
+	 */
+	private static int[] region(List<Edit> edits, int first, int end, int baseStart, int baseEnd)
+	{
+		// a side with no edits in the chunk has the base's lines, and lines
+		// outside its edits are offset from base by as much as the edits
+		// before them are
+		if (first == end)
+			return new int[] { baseStart, baseEnd };
+		Edit firstEdit = edits.get(first);
+		Edit lastEdit = edits.get(end - 1);
+		return new int[] { firstEdit.getBeginB() - (firstEdit.getBeginA() - baseStart),
+				lastEdit.getEndB() + (baseEnd - lastEdit.getEndA()) };
+	}
+
+	private static void write(ByteArrayOutputStream out, List<String> lines, int start, int end)
+	{
+		for (int i = start; i < end; i++)
+			out.writeBytes(Lines.toBytes(lines.get(i)));
+	}
+
+	/**
+	 * Writes one side of a conflict, ending it in a line terminator so the
+	 * marker after it is on its own line
+	 */
+	private static void writeConflict(ByteArrayOutputStream out, List<String> lines, int start, int end)
+	{
+		write(out, lines, start, end);
+		if (end > start && !lines.get(end - 1).endsWith("\n"))
+			out.write('\n');
+	}
+
+	private static void writeMarker(ByteArrayOutputStream out, String marker)
+	{
+		out.writeBytes(Lines.toBytes(marker + "\n"));
+	}
+}
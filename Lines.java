@@ -0,0 +1,93 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Splits the contents of files into lines, and numbers lines so that they
+ * can be compared as ints. Each line keeps its line terminator and is decoded
+ * one char per byte, so joining the lines back gives exactly the bytes they
+ * came from, whatever the encoding of the file.
+ */
+public class Lines
+{
+	// how far into a file to look for a NUL byte, which text does not have
+	private static final int	BINARY_CHECK	= 8000;
+
+	/**
+	 * Splits contents into lines
+	 * 
+	 * @param contents
+	 *            contents of a file
+	 * @return the lines, each ending in its '\n' except for a last line that
+	 *         has none
+	 */
+	public static ArrayList<String> split(byte[] contents)
+	{
+		ArrayList<String> lines = new ArrayList<String>();
+		int start = 0;
+		for (int i = 0; i < contents.length; i++)
+			if (contents[i] == '\n')
+			{
+				lines.add(new String(contents, start, i + 1 - start, StandardCharsets.ISO_8859_1));
+				start = i + 1;
+			}
+		if (start < contents.length)
+			lines.add(new String(contents, start, contents.length - start, StandardCharsets.ISO_8859_1));
+		return lines;
+	}
+
+	/**
+	 * Numbers the lines of several files together, so equal lines get the same
+	 * number in all of them
+	 * 
+	 * @param files
+	 *            lines of each file
+	 * @return numbers of the lines of each file
+	 */
+	public static int[][] number(List<List<String>> files)
+	{
+		HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+		int[][] numbered = new int[files.size()][];
+		for (int f = 0; f < files.size(); f++)
+		{
+			List<String> lines = files.get(f);
+			numbered[f] = new int[lines.size()];
+			for (int i = 0; i < lines.size(); i++)
+			{
+				Integer number = numbers.get(lines.get(i));
+				if (number == null)
+				{
+					number = numbers.size();
+					numbers.put(lines.get(i), number);
+				}
+				numbered[f][i] = number;
+			}
+		}
+		return numbered;
+	}
+
+	/**
+	 * @param contents
+	 *            contents of a file
+	 * @return true if the file has a NUL byte near its start, so it is not
+	 *         text that can be split into lines
+	 */
+	public static boolean isBinary(byte[] contents)
+	{
+		for (int i = 0; i < Math.min(contents.length, BINARY_CHECK); i++)
+			if (contents[i] == 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @param line
+	 *            a line
+	 * @return the bytes the line was decoded from
+	 */
+	public static byte[] toBytes(String line)
+	{
+		return line.getBytes(StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,140 @@
+import java.util.List;
+
+/**
+ * Myers' O(ND) difference algorithm, in its linear-space form: the middle
+ * snake of the shortest edit script is found by searching from both ends at
+ * once, and the halves on either side of it are diffed recursively. Lines
+ * that the two sequences have in common at their start and end are skipped
+ * before searching, so files that differ in a few places are diffed in time
+ * close to linear in their length.
+ */
+public class MyersDiff implements DiffAlgorithm
+{
+	/**
+	 * Finds the shortest list of edits that turns a into b
+	 * 
+	 * @param a
+	 *            numbered lines of the first sequence
+	 * @param b
+	 *            numbered lines of the second sequence
+	 * @return the edits, in order; lines between them are the same in both
+	 */
+	public List<Edit> diff(int[] a, int[] b)
+	{
+		boolean[] changedA = new boolean[a.length];
+		boolean[] changedB = new boolean[b.length];
+		compare(a, b, changedA, changedB, 0, a.length, 0, b.length);
+		return Edit.fromChanged(changedA, changedB);
+	}
+
+	/**
+	 * Marks the lines of a[aLo, aHi) and b[bLo, bHi) that are not in their
+	 * longest common subsequence
+	 * 
+	 * @param a
+	 *            numbered lines of the first sequence
+	 * @param b
+	 *            numbered lines of the second sequence
+	 * @param changedA
+	 *            set to true for each line of a that is not in b
+	 * @param changedB
+	 *            set to true for each line of b that is not in a
+	 */
+	static void compare(int[] a, int[] b, boolean[] changedA, boolean[] changedB, int aLo, int aHi, int bLo,
+			int bHi)
+	{
+		while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo])
+		{
+			aLo++;
+			bLo++;
+		}
+		while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1])
+		{
+			aHi--;
+			bHi--;
+		}
+		if (aLo == aHi)
+		{
+			for (int i = bLo; i < bHi; i++)
+				changedB[i] = true;
+			return;
+		}
+		if (bLo == bHi)
+		{
+			for (int i = aLo; i < aHi; i++)
+				changedA[i] = true;
+			return;
+		}
+		// with no common first or last line, at least two edits are needed,
+		// so both halves around the middle snake are smaller problems
+		int[] snake = middleSnake(a, b, aLo, aHi, bLo, bHi);
+		compare(a, b, changedA, changedB, aLo, snake[0], bLo, snake[1]);
+		compare(a, b, changedA, changedB, snake[2], aHi, snake[3], bHi);
+	}
+
+	/**
+	 * Searches forward from the start and backward from the end of the two
+	 * ranges, one more edit at a time, until the furthest paths of the two
+	 * searches overlap on a diagonal
+	 * 
+	 * @return start of the middle snake in a and b, then its end in a and b
+	 */
+	private static int[] middleSnake(int[] a, int[] b, int aLo, int aHi, int bLo, int bHi)
+	{
+		int n = aHi - aLo;
+		int m = bHi - bLo;
+		int delta = n - m;
+		boolean odd = (delta & 1) != 0;
+		int max = (n + m + 1) / 2;
+		int offset = max + 1;
+		// furthest x reached on each diagonal k = x - y, forward from the
+		// start, and backward from the end on diagonal (n - x) - (m - y)
+		int[] forward = new int[2 * max + 3];
+		int[] backward = new int[2 * max + 3];
+		for (int d = 0; d <= max; d++)
+		{
+			for (int k = -d; k <= d; k += 2)
+			{
+				int x;
+				if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1]))
+					x = forward[offset + k + 1];
+				else
+					x = forward[offset + k - 1] + 1;
+				int y = x - k;
+				int startX = x;
+				int startY = y;
+				while (x < n && y < m && a[aLo + x] == b[bLo + y])
+				{
+					x++;
+					y++;
+				}
+				forward[offset + k] = x;
+				int c = delta - k;
+				if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n)
+					return new int[] { aLo + startX, bLo + startY, aLo + x, bLo + y };
+			}
+			for (int c = -d; c <= d; c += 2)
+			{
+				int x;
+				if (c == -d || (c != d && backward[offset + c - 1] < backward[offset + c + 1]))
+					x = backward[offset + c + 1];
+				else
+					x = backward[offset + c - 1] + 1;
+				int y = x - c;
+				int startX = x;
+				int startY = y;
+				while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y])
+				{
+					x++;
+					y++;
+				}
+				backward[offset + c] = x;
+				int k = delta - c;
+				if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n)
+					return new int[] { aHi - x, bHi - y, aHi - startX, bHi - startY };
+			}
+		}
+		// the searches always meet by the time d reaches max
+		throw new IllegalStateException("No middle snake");
+	}
+}
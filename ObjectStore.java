@@ -0,0 +1,498 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardCopyOption.*;
+
+/**
+ * Content-addressed store for the contents of committed and staged files.
+ * Every blob is named by the SHA-1 of its bytes and kept under
+ * .gitlet/objects/xx/yyyy..., so identical content is only ever written once
+ * no matter how many files, commits or branches refer to it. Objects are
+ * zlib-compressed on disk, and are compressed and decompressed as streams so
+ * no file is ever held in memory whole. Objects start out loose, one file
+ * each, until repack rolls them into a PackFile under .gitlet/objects/pack.
+ */
+public class ObjectStore
+{
+	// compression level used unless another one is given
+	public static final int		DEFAULT_LEVEL	= Deflater.DEFAULT_COMPRESSION;
+	// system property that sets the compression level of the default store,
+	// as in java -Dgitlet.compression=1 Gitlet add big.bin
+	public static final String	LEVEL_PROPERTY	= "gitlet.compression";
+
+	private static final int	BUFFER_SIZE		= 8192;
+
+	private final File			OBJECT_DIR;
+	private final File			TEMP_DIR;
+	private final File			PACK_DIR;
+	private final int			LEVEL;
+	private List<PackFile>		packs;		// null until an object is
+											// looked for in the packs
+	private Journal				journal;	// told about new objects so they
+											// are synced, null if they are not
+
+	/**
+	 * Constructs a store rooted at the default .gitlet/objects directory that
+	 * compresses new objects at the level set by the gitlet.compression system
+	 * property, or at the default level if it is not set
+	 */
+	public ObjectStore()
+	{
+		this(new File(".gitlet/objects"), Integer.getInteger(LEVEL_PROPERTY, DEFAULT_LEVEL));
+	}
+
+	/**
+	 * Constructs a store rooted at the given directory
+	 * 
+	 * @param dir
+	 *            directory that holds all of the blobs
+	 */
+	public ObjectStore(File dir)
+	{
+		this(dir, DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Constructs a store rooted at the given directory that compresses new
+	 * objects at the given level
+	 * 
+	 * @param dir
+	 *            directory that holds all of the blobs
+	 * @param level
+	 *            zlib compression level, from 0 (none, fastest) to 9 (smallest),
+	 *            or -1 for the default
+	 */
+	public ObjectStore(File dir, int level)
+	{
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("Compression level must be between -1 and 9.");
+		OBJECT_DIR = dir;
+		TEMP_DIR = new File(dir, "tmp");
+		PACK_DIR = new File(dir, "pack");
+		LEVEL = level;
+	}
+
+	/**
+	 * creates the directories used by the store if they do not exist yet
+	 */
+	public void init()
+	{
+		TEMP_DIR.mkdirs();
+	}
+
+	/**
+	 * Sets the journal that new objects are synced through; until it is set,
+	 * objects are written without being synced
+	 * 
+	 * @param journal
+	 *            the journal of the repository
+	 */
+	public void setJournal(Journal journal)
+	{
+		this.journal = journal;
+	}
+
+	/**
+	 * Makes the directory a new loose object goes in, and tells the journal
+	 * about the object and, if it is new, the directory
+	 */
+	private void created(File object)
+	{
+		File dir = object.getParentFile();
+		boolean newDir = dir.mkdirs();
+		if (journal == null)
+			return;
+		journal.written(object);
+		if (newDir)
+			journal.written(dir);
+	}
+
+	/**
+	 * Stores the contents of the given file, reading it only once. The bytes
+	 * are hashed while being compressed into a temporary file, which is then
+	 * either renamed into place or thrown away if a blob with the same
+	 * contents already exists.
+	 * 
+	 * @param source
+	 *            file whose contents should be stored
+	 * @return ID of the blob holding the contents of source
+	 * @throws IOException
+	 */
+	public String put(File source) throws IOException
+	{
+		TEMP_DIR.mkdirs();
+		File temp = File.createTempFile("blob", null, TEMP_DIR);
+		String id;
+		try
+		{
+			MessageDigest digest = newDigest();
+			Deflater deflater = new Deflater(LEVEL);
+			try (InputStream in = new FileInputStream(source);
+					OutputStream out = new DeflaterOutputStream(new FileOutputStream(temp), deflater, BUFFER_SIZE))
+			{
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1)
+				{
+					digest.update(buffer, 0, read);
+					out.write(buffer, 0, read);
+				}
+			}
+			finally
+			{
+				deflater.end();
+			}
+			id = toHex(digest.digest());
+			File blob = getFile(id);
+			if (!contains(id))
+			{
+				created(blob);
+				Files.move(temp.toPath(), blob.toPath(), ATOMIC_MOVE);
+			}
+		}
+		finally
+		{
+			temp.delete();
+		}
+		return id;
+	}
+
+	/**
+	 * Stores the given bytes, unless an object with the same contents already
+	 * exists
+	 * 
+	 * @param bytes
+	 *            contents to store
+	 * @return ID of the object holding bytes
+	 * @throws IOException
+	 */
+	public String put(byte[] bytes) throws IOException
+	{
+		String id = hash(bytes);
+		File object = getFile(id);
+		if (!contains(id))
+		{
+			TEMP_DIR.mkdirs();
+			File temp = File.createTempFile("object", null, TEMP_DIR);
+			Deflater deflater = new Deflater(LEVEL);
+			try
+			{
+				try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(temp), deflater, BUFFER_SIZE))
+				{
+					out.write(bytes);
+				}
+				created(object);
+				Files.move(temp.toPath(), object.toPath(), ATOMIC_MOVE);
+			}
+			finally
+			{
+				deflater.end();
+				temp.delete();
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Opens the contents of an object, which are decompressed as they are read
+	 * 
+	 * @param id
+	 *            ID of the object
+	 * @return stream of the contents of the object
+	 * @throws IOException
+	 */
+	public InputStream open(String id) throws IOException
+	{
+		InputStream in = find(id);
+		if (in == null)
+		{
+			// a gc run by another process may have packed the object since
+			// the packs were listed
+			synchronized (this)
+			{
+				packs = null;
+			}
+			in = find(id);
+		}
+		if (in == null)
+			throw new FileNotFoundException("No object " + id);
+		return in;
+	}
+
+	/**
+	 * @return stream of the contents of the object, or null if it is neither
+	 *         loose nor in any of the packs listed so far
+	 */
+	private InputStream find(String id) throws IOException
+	{
+		File loose = getFile(id);
+		if (loose.exists())
+			try
+			{
+				return new InflaterInputStream(new BufferedInputStream(new FileInputStream(loose), BUFFER_SIZE));
+			}
+			catch (FileNotFoundException e)
+			{
+				// packed and deleted since it was found
+			}
+		for (PackFile pack : getPacks())
+		{
+			try
+			{
+				InputStream in = pack.open(id);
+				if (in != null)
+					return in;
+			}
+			catch (FileNotFoundException e)
+			{
+				// the pack was replaced by a newer one
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Opens the bytes of an object as they are stored, still compressed,
+	 * whether it is loose or packed whole
+	 * 
+	 * @param id
+	 *            ID of the object
+	 * @return stream of the stored bytes of the object, or null if it is only
+	 *         stored as a delta
+	 * @throws IOException
+	 */
+	InputStream openStored(String id) throws IOException
+	{
+		File loose = getFile(id);
+		if (loose.exists())
+			return new BufferedInputStream(new FileInputStream(loose), BUFFER_SIZE);
+		for (PackFile pack : getPacks())
+		{
+			InputStream in = pack.openStored(id);
+			if (in != null)
+				return in;
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the whole contents of a small object, such as a tree
+	 * 
+	 * @param id
+	 *            ID of the object
+	 * @return contents of the object
+	 * @throws IOException
+	 */
+	public byte[] read(String id) throws IOException
+	{
+		try (InputStream in = open(id))
+		{
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * @param id
+	 *            ID of a blob
+	 * @return true if a blob with the given ID has been stored
+	 */
+	public boolean contains(String id)
+	{
+		if (getFile(id).exists())
+			return true;
+		try
+		{
+			for (PackFile pack : getPacks())
+				if (pack.contains(id))
+					return true;
+		}
+		catch (IOException e)
+		{
+			// a pack that cannot be read does not have the blob as far as
+			// anyone reading it is concerned
+		}
+		return false;
+	}
+
+	/**
+	 * Rolls every loose object and every existing pack into a single new pack,
+	 * then deletes the loose objects and the old packs. Each version of a file
+	 * is stored as a delta from the version before it where that is smaller.
+	 * 
+	 * @param histories
+	 *            the blob IDs of the versions of each file, oldest first
+	 * @return number of objects in the new pack
+	 * @throws IOException
+	 */
+	public int repack(Collection<List<String>> histories) throws IOException
+	{
+		List<PackFile> oldPacks = getPacks();
+		TreeSet<String> ids = new TreeSet<String>();
+		for (PackFile pack : oldPacks)
+			ids.addAll(pack.getIDs());
+		ArrayList<File> loose = new ArrayList<File>();
+		File[] dirs = OBJECT_DIR.listFiles();
+		if (dirs != null)
+			for (File dir : dirs)
+			{
+				// loose objects are in the directories named by the first two
+				// characters of their IDs
+				if (!dir.isDirectory() || dir.getName().length() != 2)
+					continue;
+				for (File object : dir.listFiles())
+				{
+					ids.add(dir.getName() + object.getName());
+					loose.add(object);
+				}
+			}
+		if (loose.isEmpty() && oldPacks.size() <= 1)
+			return ids.size();
+
+		// key is the ID of an object, value is the base to try to store it
+		// against, with every base before the objects stored against it
+		LinkedHashMap<String, String> bases = new LinkedHashMap<String, String>();
+		for (List<String> history : histories)
+		{
+			String previous = null;
+			for (String id : history)
+			{
+				if (ids.contains(id) && !id.equals(previous))
+				{
+					bases.putIfAbsent(id, previous);
+					previous = id;
+				}
+			}
+		}
+		for (String id : ids)
+			bases.putIfAbsent(id, null);
+
+		PackFile newPack = PackFile.write(PACK_DIR, TEMP_DIR, bases, this, LEVEL);
+		synchronized (this)
+		{
+			packs = new ArrayList<PackFile>(Arrays.asList(newPack));
+		}
+		for (PackFile pack : oldPacks)
+			if (!pack.getIndexFile().equals(newPack.getIndexFile()))
+				pack.delete();
+		for (File object : loose)
+		{
+			object.delete();
+			object.getParentFile().delete();
+		}
+		return ids.size();
+	}
+
+	/**
+	 * Gets the file that holds the blob with the given ID, compressed, when it
+	 * is loose
+	 * 
+	 * @param id
+	 *            ID of the blob
+	 * @return File where the blob is (or would be) stored loose
+	 */
+	public File getFile(String id)
+	{
+		return new File(new File(OBJECT_DIR, id.substring(0, 2)), id.substring(2));
+	}
+
+	/**
+	 * Decompresses the contents of the blob with the given ID into dest,
+	 * creating parent directories as needed
+	 * 
+	 * @param id
+	 *            ID of the blob to copy
+	 * @param dest
+	 *            where the contents should be written to
+	 * @throws IOException
+	 */
+	public void copyTo(String id, File dest) throws IOException
+	{
+		File parent = dest.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		try (InputStream in = open(id); OutputStream out = new FileOutputStream(dest))
+		{
+			in.transferTo(out);
+		}
+	}
+
+	/**
+	 * Computes the blob ID the given file would be stored under without
+	 * storing it
+	 * 
+	 * @param file
+	 *            file to hash
+	 * @return SHA-1 of the contents of file, in hex
+	 * @throws IOException
+	 */
+	public static String hash(File file) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		try (InputStream in = new FileInputStream(file))
+		{
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Computes the ID the given bytes would be stored under
+	 * 
+	 * @param bytes
+	 *            contents to hash
+	 * @return SHA-1 of bytes, in hex
+	 */
+	public static String hash(byte[] bytes)
+	{
+		return toHex(newDigest().digest(bytes));
+	}
+
+	// objects are read from many threads at once, so finding the packs is
+	// synchronized
+	private synchronized List<PackFile> getPacks()
+	{
+		if (packs == null)
+		{
+			packs = new ArrayList<PackFile>();
+			File[] indexes = PACK_DIR.listFiles();
+			if (indexes != null)
+				for (File index : indexes)
+					if (index.getName().endsWith(".idx"))
+						packs.add(new PackFile(index));
+		}
+		return packs;
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every Java platform is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+		{
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
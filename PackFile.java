@@ -0,0 +1,594 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Many objects kept together in one pack file, along with an index file of
+ * fixed-width entries sorted by object ID that give where each object starts
+ * in the pack and how long it is. Both files are memory-mapped, so finding an
+ * object is a binary search over the mapped index and reading it never opens
+ * another file. A buffer can map at most Integer.MAX_VALUE bytes, one byte
+ * short of 2 GiB, so the pack is mapped in windows as they are needed; the
+ * few objects that cross from one window into the next are read from the
+ * file instead.
+ * 
+ * Every object in the pack starts with a type byte. A WHOLE object is then
+ * compressed exactly as it would be stored loose. A DELTA object is the ID of
+ * another object in the same pack followed by the compressed Delta from that
+ * base, so a later version of a file costs about as much as what changed in
+ * it. Chains of deltas are kept short, and bases that were rebuilt recently
+ * are cached so reading the versions of one file does not rebuild the chain
+ * each time.
+ */
+public class PackFile
+{
+	// bytes in an object ID
+	private static final int	ID_SIZE		= 20;
+	// bytes in one index entry: ID followed by long offset and long length
+	private static final int	ENTRY_SIZE	= ID_SIZE + 8 + 8;
+	// types of object
+	private static final byte	WHOLE		= 0;
+	private static final byte	DELTA		= 1;
+	// most deltas that have to be applied to rebuild an object
+	static final int			MAX_DEPTH	= 10;
+	// objects smaller or bigger than these are always stored whole
+	private static final int	MIN_DELTA	= 64;
+	private static final int	MAX_DELTA	= 16 * 1024 * 1024;
+	// bytes of rebuilt bases to keep in memory
+	private static final int	CACHE_SIZE	= 32 * 1024 * 1024;
+	// bytes of the pack mapped by each window
+	private static final long	WINDOW_SIZE	= 1L << 30;
+
+	private final File			PACK_FILE;
+	private final File			INDEX_FILE;
+	private final long			windowSize;
+	private MappedByteBuffer[]	windows;	// null until the first read, then
+												// each null until it is read
+	private MappedByteBuffer	index;		// null until the first lookup
+	// objects rebuilt from deltas, least recently used first
+	private LinkedHashMap<String, byte[]>	bases;
+	private int								cached;	// bytes in bases
+
+	/**
+	 * Constructs a pack from its index file. The pack file has the same name
+	 * with .pack in place of .idx.
+	 * 
+	 * @param indexFile
+	 *            the index of the pack
+	 */
+	public PackFile(File indexFile)
+	{
+		this(indexFile, WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructs a pack from its index file, mapping the pack in windows of
+	 * the given size
+	 * 
+	 * @param indexFile
+	 *            the index of the pack
+	 * @param windowSize
+	 *            bytes of the pack to map at a time, at most
+	 *            Integer.MAX_VALUE
+	 */
+	PackFile(File indexFile, long windowSize)
+	{
+		if (windowSize <= 0 || windowSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Window size must be between 1 and " + Integer.MAX_VALUE + " bytes.");
+		INDEX_FILE = indexFile;
+		String name = indexFile.getName();
+		PACK_FILE = new File(indexFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+		this.windowSize = windowSize;
+		bases = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	}
+
+	/**
+	 * Writes a new pack of the given objects. An object is stored as a delta
+	 * from its suggested base only when the two are close in size, the chain
+	 * to the base is not too deep already, and the delta is less than half the
+	 * size of the object.
+	 * 
+	 * @param dir
+	 *            directory to put the pack in
+	 * @param tempDir
+	 *            directory to write the pack in before it is moved into dir
+	 * @param ids
+	 *            map of the ID of each object to pack to the ID of the object
+	 *            to try to store it as a delta from, or null; every base comes
+	 *            before the objects suggested to be stored against it
+	 * @param objects
+	 *            the ObjectStore to read the objects from
+	 * @param level
+	 *            compression level of objects that are not already compressed
+	 * @return the new pack
+	 * @throws IOException
+	 */
+	public static PackFile write(File dir, File tempDir, LinkedHashMap<String, String> ids, ObjectStore objects,
+			int level) throws IOException
+	{
+		tempDir.mkdirs();
+		dir.mkdirs();
+		File tempPack = File.createTempFile("pack", null, tempDir);
+		File tempIndex = File.createTempFile("idx", null, tempDir);
+		try
+		{
+			// value is offset and length of each object
+			TreeMap<String, long[]> entries = new TreeMap<String, long[]>();
+			HashMap<String, Integer> depths = new HashMap<String, Integer>();
+			try (CountingOutputStream packOut = new CountingOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempPack))))
+			{
+				// the last object is often the base of the next one; its
+				// contents are null if it was streamed without being read
+				String lastID = null;
+				byte[] last = null;
+				for (Map.Entry<String, String> object : ids.entrySet())
+				{
+					String id = object.getKey();
+					String baseID = object.getValue();
+					long offset = packOut.count;
+					byte[] contents = null;
+					int depth = 0;
+					if (baseID != null && depths.containsKey(baseID) && depths.get(baseID) < MAX_DEPTH)
+					{
+						byte[] base = baseID.equals(lastID) && last != null ? last : readSmall(objects, baseID);
+						contents = readSmall(objects, id);
+						byte[] delta = null;
+						if (base != null && contents != null && contents.length <= 2 * base.length
+								&& base.length <= 2 * contents.length)
+							delta = Delta.create(base, contents);
+						if (delta != null && delta.length < contents.length / 2)
+						{
+							packOut.write(DELTA);
+							packOut.write(toBytes(baseID));
+							writeCompressed(packOut, new ByteArrayInputStream(delta), level);
+							depth = depths.get(baseID) + 1;
+						}
+					}
+					if (packOut.count == offset)
+						writeWhole(packOut, id, objects, level);
+					depths.put(id, depth);
+					entries.put(id, new long[] { offset, packOut.count - offset });
+					lastID = id;
+					last = contents;
+				}
+			}
+			ByteArrayOutputStream indexBytesOut = new ByteArrayOutputStream(entries.size() * ENTRY_SIZE);
+			DataOutputStream indexOut = new DataOutputStream(indexBytesOut);
+			for (Map.Entry<String, long[]> entry : entries.entrySet())
+			{
+				indexOut.write(toBytes(entry.getKey()));
+				indexOut.writeLong(entry.getValue()[0]);
+				indexOut.writeLong(entry.getValue()[1]);
+			}
+			byte[] indexBytes = indexBytesOut.toByteArray();
+			Files.write(tempIndex.toPath(), indexBytes);
+			// the objects in the pack are deleted once it is written, so it
+			// has to be on disk before it is renamed into place
+			Journal.force(tempPack);
+			Journal.force(tempIndex);
+
+			// named by what is in it, so a pack that is rewritten with the
+			// same objects keeps its name
+			String name = "pack-" + ObjectStore.hash(indexBytes);
+			File packFile = new File(dir, name + ".pack");
+			File indexFile = new File(dir, name + ".idx");
+			// the index goes last, since packs are found by their index
+			Files.move(tempPack.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			Files.move(tempIndex.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			Journal.force(dir);
+			return new PackFile(indexFile);
+		}
+		finally
+		{
+			tempPack.delete();
+			tempIndex.delete();
+		}
+	}
+
+	/**
+	 * @param id
+	 *            ID of an object
+	 * @return true if the object is in this pack
+	 * @throws IOException
+	 */
+	public boolean contains(String id) throws IOException
+	{
+		return find(id) >= 0;
+	}
+
+	/**
+	 * Opens the contents of an object. Whole objects are decompressed as they
+	 * are read; deltas are applied to their bases first.
+	 * 
+	 * @param id
+	 *            ID of the object
+	 * @return stream of the contents of the object, or null if it is not in
+	 *         this pack
+	 * @throws IOException
+	 */
+	public InputStream open(String id) throws IOException
+	{
+		int entry = find(id);
+		if (entry < 0)
+			return null;
+		InputStream stored = openEntry(entry);
+		if (stored.read() == WHOLE)
+			return new InflaterInputStream(stored);
+		stored.close();
+		return new ByteArrayInputStream(rebuild(id));
+	}
+
+	/**
+	 * Opens the stored, still compressed, bytes of an object that is stored
+	 * whole
+	 * 
+	 * @param id
+	 *            ID of the object
+	 * @return stream of the stored bytes of the object, or null if it is not
+	 *         in this pack or is stored as a delta
+	 * @throws IOException
+	 */
+	public InputStream openStored(String id) throws IOException
+	{
+		int entry = find(id);
+		if (entry < 0)
+			return null;
+		InputStream stored = openEntry(entry);
+		if (stored.read() == WHOLE)
+			return stored;
+		stored.close();
+		return null;
+	}
+
+	/**
+	 * @return IDs of all of the objects in this pack, in order
+	 * @throws IOException
+	 */
+	public TreeSet<String> getIDs() throws IOException
+	{
+		MappedByteBuffer entries = mapIndex();
+		TreeSet<String> ids = new TreeSet<String>();
+		byte[] id = new byte[ID_SIZE];
+		for (int i = 0; i < entries.capacity() / ENTRY_SIZE; i++)
+		{
+			entries.get(i * ENTRY_SIZE, id);
+			ids.add(toHex(id));
+		}
+		return ids;
+	}
+
+	/**
+	 * Deletes the pack and its index
+	 */
+	public void delete()
+	{
+		// the index goes first, so the pack is never found without its objects
+		INDEX_FILE.delete();
+		PACK_FILE.delete();
+	}
+
+	/**
+	 * @return the index file of this pack
+	 */
+	public File getIndexFile()
+	{
+		return INDEX_FILE;
+	}
+
+	/**
+	 * Finds the entry for an object in the index
+	 * 
+	 * @param id
+	 *            ID of the object
+	 * @return number of the entry, or -1 if the object is not in this pack
+	 * @throws IOException
+	 */
+	private int find(String id) throws IOException
+	{
+		MappedByteBuffer entries = mapIndex();
+		byte[] key = toBytes(id);
+		byte[] midKey = new byte[ID_SIZE];
+		int low = 0;
+		int high = entries.capacity() / ENTRY_SIZE - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			entries.get(mid * ENTRY_SIZE, midKey);
+			int compare = Arrays.compareUnsigned(midKey, key);
+			if (compare < 0)
+				low = mid + 1;
+			else if (compare > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Opens the stored bytes of an object, starting with its type. An object
+	 * in one window is read from the mapped window; one that crosses into the
+	 * next window is read from the pack file.
+	 * 
+	 * @param entry
+	 *            number of the entry of the object in the index
+	 * @return stream of the stored bytes of the object
+	 * @throws IOException
+	 */
+	private InputStream openEntry(int entry) throws IOException
+	{
+		MappedByteBuffer entries = mapIndex();
+		long offset = entries.getLong(entry * ENTRY_SIZE + ID_SIZE);
+		long length = entries.getLong(entry * ENTRY_SIZE + ID_SIZE + 8);
+		int window = (int) (offset / windowSize);
+		long start = offset - window * windowSize;
+		if (start + length <= windowSize)
+			return new BufferInputStream(mapWindow(window).slice((int) start, (int) length));
+		return new ChannelInputStream(FileChannel.open(PACK_FILE.toPath()), offset, length);
+	}
+
+	/**
+	 * Gets the whole contents of an object, applying its chain of deltas
+	 * 
+	 * @param id
+	 *            ID of the object
+	 * @return contents of the object
+	 * @throws IOException
+	 */
+	private byte[] rebuild(String id) throws IOException
+	{
+		byte[] contents = getCached(id);
+		if (contents != null)
+			return contents;
+		int entry = find(id);
+		if (entry < 0)
+			throw new FileNotFoundException("No object " + id + " in " + PACK_FILE);
+		byte[] baseID = null;
+		try (InputStream stored = openEntry(entry))
+		{
+			if (stored.read() != WHOLE)
+				baseID = stored.readNBytes(ID_SIZE);
+			try (InputStream in = new InflaterInputStream(stored))
+			{
+				contents = in.readAllBytes();
+			}
+		}
+		// chains are at most MAX_DEPTH long, so this does not recurse far
+		if (baseID != null)
+			contents = Delta.apply(rebuild(toHex(baseID)), contents);
+		cache(id, contents);
+		return contents;
+	}
+
+	// objects are read from many threads at once, so the cache is
+	// synchronized
+	private synchronized byte[] getCached(String id)
+	{
+		return bases.get(id);
+	}
+
+	private synchronized void cache(String id, byte[] contents)
+	{
+		if (contents.length > CACHE_SIZE || bases.containsKey(id))
+			return;
+		bases.put(id, contents);
+		cached += contents.length;
+		Iterator<byte[]> eldest = bases.values().iterator();
+		while (cached > CACHE_SIZE)
+		{
+			cached -= eldest.next().length;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Reads an object that is small enough to be stored as a delta
+	 * 
+	 * @return contents of the object, or null if it is too small or too big
+	 */
+	private static byte[] readSmall(ObjectStore objects, String id) throws IOException
+	{
+		try (InputStream in = objects.open(id))
+		{
+			byte[] contents = in.readNBytes(MAX_DELTA + 1);
+			return contents.length < MIN_DELTA || contents.length > MAX_DELTA ? null : contents;
+		}
+	}
+
+	private static void writeWhole(OutputStream out, String id, ObjectStore objects, int level) throws IOException
+	{
+		out.write(WHOLE);
+		// already compressed unless it is a delta in another pack
+		try (InputStream stored = objects.openStored(id))
+		{
+			if (stored != null)
+			{
+				stored.transferTo(out);
+				return;
+			}
+		}
+		try (InputStream in = objects.open(id))
+		{
+			writeCompressed(out, in, level);
+		}
+	}
+
+	private static void writeCompressed(OutputStream out, InputStream in, int level) throws IOException
+	{
+		Deflater deflater = new Deflater(level);
+		try
+		{
+			DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater);
+			in.transferTo(compressed);
+			// finish rather than close, since out is still being written to
+			compressed.finish();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	// objects are read from many threads at once, so mapping is synchronized
+	private synchronized MappedByteBuffer mapIndex() throws IOException
+	{
+		if (index == null)
+			index = map(INDEX_FILE);
+		return index;
+	}
+
+	private synchronized MappedByteBuffer mapWindow(int window) throws IOException
+	{
+		if (windows == null)
+			windows = new MappedByteBuffer[(int) ((PACK_FILE.length() + windowSize - 1) / windowSize)];
+		if (windows[window] == null)
+			windows[window] = map(PACK_FILE, window * windowSize, windowSize);
+		return windows[window];
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException
+	{
+		return map(file, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Maps part of a file, cut short at its end
+	 */
+	private static MappedByteBuffer map(File file, long position, long size) throws IOException
+	{
+		try (FileChannel channel = new RandomAccessFile(file, "r").getChannel())
+		{
+			return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size, channel.size() - position));
+		}
+	}
+
+	private static byte[] toBytes(String id)
+	{
+		byte[] bytes = new byte[ID_SIZE];
+		for (int i = 0; i < ID_SIZE; i++)
+			bytes[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+		return bytes;
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+		{
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Counts the bytes written so far, which is where the next object starts
+	 */
+	private static class CountingOutputStream extends FilterOutputStream
+	{
+		private long	count;
+
+		CountingOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] bytes, int offset, int length) throws IOException
+		{
+			out.write(bytes, offset, length);
+			count += length;
+		}
+	}
+
+	/**
+	 * Reads the bytes of part of a file without moving the position of the
+	 * channel, closing the channel when it is closed
+	 */
+	private static class ChannelInputStream extends InputStream
+	{
+		private final FileChannel	channel;
+		private long				position;
+		private final long			end;
+
+		ChannelInputStream(FileChannel channel, long position, long length)
+		{
+			this.channel = channel;
+			this.position = position;
+			end = position + length;
+		}
+
+		public int read() throws IOException
+		{
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+
+		public int read(byte[] bytes, int offset, int length) throws IOException
+		{
+			if (length == 0)
+				return 0;
+			if (position >= end)
+				return -1;
+			int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+			if (read < 0)
+				throw new EOFException("Pack ends before its last object");
+			position += read;
+			return read;
+		}
+
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads the bytes of a slice of a mapped file
+	 */
+	private static class BufferInputStream extends InputStream
+	{
+		private final ByteBuffer	buffer;
+
+		BufferInputStream(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		public int read()
+		{
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		public int read(byte[] bytes, int offset, int length)
+		{
+			if (length == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		public int available()
+		{
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Prints the differences between two versions of a file as a unified diff:
+ * the changed lines in hunks, each with up to CONTEXT unchanged lines around
+ * it, removed lines starting with '-' and added lines with '+'. Versions are
+ * compared line by line with whichever DiffAlgorithm it is given.
+ */
+public class TextDiff
+{
+	// unchanged lines shown before and after each change
+	private static final int		CONTEXT	= 3;
+
+	private final DiffAlgorithm	algorithm;
+	private final PrintStream		out;
+
+	/**
+	 * Constructs a printer of diffs
+	 * 
+	 * @param algorithm
+	 *            how to find the changed lines
+	 * @param out
+	 *            where to print the diffs
+	 */
+	public TextDiff(DiffAlgorithm algorithm, PrintStream out)
+	{
+		this.algorithm = algorithm;
+		this.out = out;
+	}
+
+	/**
+	 * Prints the differences between two stored versions of a file. Versions
+	 * with the same blob ID are the same, so they are not read.
+	 * 
+	 * @param path
+	 *            path of the file
+	 * @param before
+	 *            ID of the blob of the old version, or null if there is none
+	 * @param after
+	 *            ID of the blob of the new version, or null if there is none
+	 * @param objects
+	 *            the ObjectStore holding the blobs
+	 * @return true if the versions are different
+	 * @throws IOException
+	 */
+	public boolean print(String path, String before, String after, ObjectStore objects) throws IOException
+	{
+		if (Objects.equals(before, after))
+			return false;
+		print(path, before == null ? null : objects.read(before), after == null ? null : objects.read(after));
+		return true;
+	}
+
+	/**
+	 * Prints the differences between two versions of a file
+	 * 
+	 * @param path
+	 *            path of the file
+	 * @param before
+	 *            contents of the old version, or null if there is none
+	 * @param after
+	 *            contents of the new version, or null if there is none
+	 */
+	public void print(String path, byte[] before, byte[] after)
+	{
+		String beforeName = before == null ? "/dev/null" : "a/" + path;
+		String afterName = after == null ? "/dev/null" : "b/" + path;
+		byte[] a = before == null ? new byte[0] : before;
+		byte[] b = after == null ? new byte[0] : after;
+		out.println("diff --git a/" + path + " b/" + path);
+		if (Lines.isBinary(a) || Lines.isBinary(b))
+		{
+			out.println("Binary files " + beforeName + " and " + afterName + " differ");
+			return;
+		}
+		out.println("--- " + beforeName);
+		out.println("+++ " + afterName);
+
+		List<String> aLines = Lines.split(a);
+		List<String> bLines = Lines.split(b);
+		int[][] numbered = Lines.number(Arrays.asList(aLines, bLines));
+		List<Edit> edits = algorithm.diff(numbered[0], numbered[1]);
+		int first = 0;
+		while (first < edits.size())
+		{
+			// edits whose context would touch go in the same hunk
+			int last = first;
+			while (last + 1 < edits.size()
+					&& edits.get(last + 1).getBeginA() - edits.get(last).getEndA() <= 2 * CONTEXT)
+				last++;
+			Edit firstEdit = edits.get(first);
+			Edit lastEdit = edits.get(last);
+			int startA = Math.max(0, firstEdit.getBeginA() - CONTEXT);
+			int endA = Math.min(aLines.size(), lastEdit.getEndA() + CONTEXT);
+			int startB = firstEdit.getBeginB() - (firstEdit.getBeginA() - startA);
+			int endB = lastEdit.getEndB() + (endA - lastEdit.getEndA());
+			out.println("@@ -" + range(startA, endA) + " +" + range(startB, endB) + " @@");
+			int i = startA;
+			for (int e = first; e <= last; e++)
+			{
+				Edit edit = edits.get(e);
+				for (; i < edit.getBeginA(); i++)
+					printLine(' ', aLines.get(i));
+				for (int j = edit.getBeginA(); j < edit.getEndA(); j++)
+					printLine('-', aLines.get(j));
+				for (int j = edit.getBeginB(); j < edit.getEndB(); j++)
+					printLine('+', bLines.get(j));
+				i = edit.getEndA();
+			}
+			for (; i < endA; i++)
+				printLine(' ', aLines.get(i));
+			first = last + 1;
+		}
+	}
+
+	/**
+	 * @return the range of lines [start, end) as a hunk header shows it: the
+	 *         first line counting from 1 and the number of lines, which is
+	 *         left out if it is 1
+	 */
+	private static String range(int start, int end)
+	{
+		int count = end - start;
+		if (count == 1)
+			return Integer.toString(start + 1);
+		// an empty range is shown as starting at the line before it
+		return (count == 0 ? start : start + 1) + "," + count;
+	}
+
+	private void printLine(char prefix, String line)
+	{
+		byte[] bytes = Lines.toBytes(line);
+		out.print(prefix);
+		out.write(bytes, 0, bytes.length);
+		if (!line.endsWith("\n"))
+		{
+			out.println();
+			out.println("\\ No newline at end of file");
+		}
+	}
+}
@@ -0,0 +1,354 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Immutable directory tree mapping the paths of a commit's files to the IDs
+ * of their blobs. Every directory is its own tree object in the ObjectStore,
+ * named by the hash of its entries. Changing a file makes new trees only for
+ * the directories along that file's path; every other directory is shared,
+ * in memory and on disk, with the tree it was derived from. Trees read from
+ * disk load their entries only when they are first looked at.
+ */
+public class Tree
+{
+	private String					id;			// ID in the ObjectStore,
+												// null until computed
+	private boolean					stored;		// true once written to the
+												// ObjectStore
+	private ObjectStore				objects;	// where the entries are read
+												// from, null for trees built
+												// in memory
+	// key is the name of a file directly in this directory
+	// value is the ID of its blob
+	private TreeMap<String, String>	files;		// null until loaded
+	// key is the name of a directory directly in this directory
+	private TreeMap<String, Tree>	dirs;		// null until loaded
+
+	/**
+	 * Constructs an empty tree
+	 */
+	public Tree()
+	{
+		this(new TreeMap<String, String>(), new TreeMap<String, Tree>());
+	}
+
+	private Tree(TreeMap<String, String> files, TreeMap<String, Tree> dirs)
+	{
+		this.files = files;
+		this.dirs = dirs;
+	}
+
+	private Tree(String id, ObjectStore objects)
+	{
+		this.id = id;
+		this.objects = objects;
+		stored = true;
+	}
+
+	/**
+	 * Gets the tree with the given ID without reading it yet
+	 * 
+	 * @param id
+	 *            ID of the tree in objects
+	 * @param objects
+	 *            the ObjectStore holding the tree
+	 * @return the tree
+	 */
+	public static Tree read(String id, ObjectStore objects)
+	{
+		return new Tree(id, objects);
+	}
+
+	/**
+	 * Finds the blob of the file at the given path
+	 * 
+	 * @param path
+	 *            path of the file, with directories separated by '/'
+	 * @return ID of the blob, or null if there is no such file in this tree
+	 */
+	public String get(String path)
+	{
+		Tree current = this;
+		int start = 0;
+		int slash;
+		while ((slash = path.indexOf('/', start)) >= 0)
+		{
+			current.load();
+			current = current.dirs.get(path.substring(start, slash));
+			if (current == null)
+				return null;
+			start = slash + 1;
+		}
+		current.load();
+		return current.files.get(path.substring(start));
+	}
+
+	/**
+	 * Makes a tree that is this one with the file at the given path set to the
+	 * given blob. Only the directories along path are copied.
+	 * 
+	 * @param path
+	 *            path of the file, with directories separated by '/'
+	 * @param blobID
+	 *            ID of the file's blob
+	 * @return the new tree
+	 */
+	public Tree with(String path, String blobID)
+	{
+		load();
+		Tree copy = new Tree(new TreeMap<String, String>(files), new TreeMap<String, Tree>(dirs));
+		int slash = path.indexOf('/');
+		if (slash < 0)
+			copy.files.put(path, blobID);
+		else
+		{
+			String dir = path.substring(0, slash);
+			Tree child = dirs.containsKey(dir) ? dirs.get(dir) : new Tree();
+			copy.dirs.put(dir, child.with(path.substring(slash + 1), blobID));
+		}
+		return copy;
+	}
+
+	/**
+	 * Makes a tree that is this one without the file at the given path.
+	 * Directories left empty are dropped, and only the directories along path
+	 * are copied.
+	 * 
+	 * @param path
+	 *            path of the file, with directories separated by '/'
+	 * @return the new tree, or this tree if there is no such file
+	 */
+	public Tree without(String path)
+	{
+		load();
+		int slash = path.indexOf('/');
+		if (slash < 0)
+		{
+			if (!files.containsKey(path))
+				return this;
+			Tree copy = new Tree(new TreeMap<String, String>(files), dirs);
+			copy.files.remove(path);
+			return copy;
+		}
+		String dir = path.substring(0, slash);
+		Tree child = dirs.get(dir);
+		if (child == null)
+			return this;
+		Tree newChild = child.without(path.substring(slash + 1));
+		if (newChild == child)
+			return this;
+		Tree copy = new Tree(files, new TreeMap<String, Tree>(dirs));
+		if (newChild.isEmpty())
+			copy.dirs.remove(dir);
+		else
+			copy.dirs.put(dir, newChild);
+		return copy;
+	}
+
+	/**
+	 * Makes a tree that is this one with many files set or removed at once.
+	 * Each directory with changed files is copied only once, and directories
+	 * left empty are dropped.
+	 * 
+	 * @param changes
+	 *            map of the path of each changed file, with directories
+	 *            separated by '/', to the ID of its blob, or null to remove it
+	 * @return the new tree
+	 */
+	public Tree withAll(Map<String, String> changes)
+	{
+		if (changes.isEmpty())
+			return this;
+		load();
+		Tree copy = new Tree(new TreeMap<String, String>(files), new TreeMap<String, Tree>(dirs));
+		// key is the name of a directory directly in this directory, value is
+		// the changes inside it
+		HashMap<String, HashMap<String, String>> dirChanges = new HashMap<String, HashMap<String, String>>();
+		for (Map.Entry<String, String> change : changes.entrySet())
+		{
+			String path = change.getKey();
+			int slash = path.indexOf('/');
+			if (slash < 0)
+			{
+				if (change.getValue() == null)
+					copy.files.remove(path);
+				else
+					copy.files.put(path, change.getValue());
+				continue;
+			}
+			String dir = path.substring(0, slash);
+			if (!dirChanges.containsKey(dir))
+				dirChanges.put(dir, new HashMap<String, String>());
+			dirChanges.get(dir).put(path.substring(slash + 1), change.getValue());
+		}
+		for (Map.Entry<String, HashMap<String, String>> dir : dirChanges.entrySet())
+		{
+			Tree child = dirs.containsKey(dir.getKey()) ? dirs.get(dir.getKey()) : new Tree();
+			Tree newChild = child.withAll(dir.getValue());
+			if (newChild.isEmpty())
+				copy.dirs.remove(dir.getKey());
+			else
+				copy.dirs.put(dir.getKey(), newChild);
+		}
+		return copy;
+	}
+
+	/**
+	 * @return true if there are no files in this tree
+	 */
+	public boolean isEmpty()
+	{
+		load();
+		return files.isEmpty() && dirs.isEmpty();
+	}
+
+	/**
+	 * @return map of the paths of all files in this tree to their blob IDs, in
+	 *         order
+	 */
+	public TreeMap<String, String> getManifest()
+	{
+		TreeMap<String, String> manifest = new TreeMap<String, String>();
+		collect("", manifest);
+		return manifest;
+	}
+
+	private void collect(String prefix, TreeMap<String, String> manifest)
+	{
+		load();
+		for (Map.Entry<String, String> file : files.entrySet())
+			manifest.put(prefix + file.getKey(), file.getValue());
+		for (Map.Entry<String, Tree> dir : dirs.entrySet())
+			dir.getValue().collect(prefix + dir.getKey() + "/", manifest);
+	}
+
+	/**
+	 * Finds every file that is different in other. Directories with the same
+	 * ID in both trees are skipped without being read.
+	 * 
+	 * @param other
+	 *            tree to compare with
+	 * @return map of the path of each file that was added, changed or removed
+	 *         in other to its blob ID in other (null if it was removed), in
+	 *         order
+	 */
+	public TreeMap<String, String> diff(Tree other)
+	{
+		TreeMap<String, String> changes = new TreeMap<String, String>();
+		diff(this, other, "", changes);
+		return changes;
+	}
+
+	private static void diff(Tree before, Tree after, String prefix, TreeMap<String, String> changes)
+	{
+		if (before == after || before.getID().equals(after.getID()))
+			return;
+		before.load();
+		after.load();
+		for (Map.Entry<String, String> file : before.files.entrySet())
+			if (!file.getValue().equals(after.files.get(file.getKey())))
+				changes.put(prefix + file.getKey(), after.files.get(file.getKey()));
+		for (Map.Entry<String, String> file : after.files.entrySet())
+			if (!before.files.containsKey(file.getKey()))
+				changes.put(prefix + file.getKey(), file.getValue());
+		for (Map.Entry<String, Tree> dir : before.dirs.entrySet())
+		{
+			String dirPrefix = prefix + dir.getKey() + "/";
+			Tree afterDir = after.dirs.get(dir.getKey());
+			if (afterDir != null)
+				diff(dir.getValue(), afterDir, dirPrefix, changes);
+			else
+			{
+				TreeMap<String, String> removed = new TreeMap<String, String>();
+				dir.getValue().collect(dirPrefix, removed);
+				for (String path : removed.keySet())
+					changes.put(path, null);
+			}
+		}
+		for (Map.Entry<String, Tree> dir : after.dirs.entrySet())
+			if (!before.dirs.containsKey(dir.getKey()))
+				dir.getValue().collect(prefix + dir.getKey() + "/", changes);
+	}
+
+	/**
+	 * @return ID of this tree, equal for two trees exactly when they have the
+	 *         same files with the same contents
+	 */
+	public String getID()
+	{
+		if (id == null)
+			id = ObjectStore.hash(toBytes());
+		return id;
+	}
+
+	/**
+	 * Writes every directory of this tree that is not in objects yet. Shared
+	 * directories that were already written are skipped without being read.
+	 * 
+	 * @param store
+	 *            the ObjectStore to write to
+	 * @return ID of this tree
+	 * @throws IOException
+	 */
+	public String write(ObjectStore store) throws IOException
+	{
+		if (stored)
+			return id;
+		for (Tree dir : dirs.values())
+			dir.write(store);
+		id = store.put(toBytes());
+		objects = store;
+		stored = true;
+		return id;
+	}
+
+	private byte[] toBytes()
+	{
+		load();
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(files.size());
+			for (Map.Entry<String, String> file : files.entrySet())
+			{
+				out.writeUTF(file.getKey());
+				out.writeUTF(file.getValue());
+			}
+			out.writeInt(dirs.size());
+			for (Map.Entry<String, Tree> dir : dirs.entrySet())
+			{
+				out.writeUTF(dir.getKey());
+				out.writeUTF(dir.getValue().getID());
+			}
+			out.close();
+			return bytes.toByteArray();
+		}
+		catch (IOException e)
+		{
+			// writing to a byte array does not fail
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void load()
+	{
+		if (files != null)
+			return;
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(objects.read(id))))
+		{
+			TreeMap<String, String> newFiles = new TreeMap<String, String>();
+			for (int i = in.readInt(); i > 0; i--)
+				newFiles.put(in.readUTF(), in.readUTF());
+			TreeMap<String, Tree> newDirs = new TreeMap<String, Tree>();
+			for (int i = in.readInt(); i > 0; i--)
+				newDirs.put(in.readUTF(), new Tree(in.readUTF(), objects));
+			dirs = newDirs;
+			files = newFiles;
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException("Could not read tree " + id, e);
+		}
+	}
+}
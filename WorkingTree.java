@@ -0,0 +1,374 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Scans and writes the working directory in parallel. Directories are walked
+ * as a fork-join task per directory, and only files whose stat no longer
+ * matches the Index are read to find out what their contents are. Files are
+ * written out of the ObjectStore in batches on the same pool.
+ */
+public class WorkingTree
+{
+	// files are hashed in batches of this many per task
+	private static final int	HASH_BATCH	= 64;
+	// files are written in batches of this many per task
+	private static final int	WRITE_BATCH	= 16;
+
+	private final File			ROOT;
+	private final ForkJoinPool	POOL;
+
+	/**
+	 * Constructs a scanner of the current directory
+	 */
+	public WorkingTree()
+	{
+		this(new File("."));
+	}
+
+	/**
+	 * Constructs a scanner of the given directory
+	 * 
+	 * @param root
+	 *            the working directory
+	 */
+	public WorkingTree(File root)
+	{
+		this(root, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructs a scanner of the given directory that runs its tasks on the
+	 * given pool
+	 * 
+	 * @param root
+	 *            the working directory
+	 * @param pool
+	 *            pool to scan, hash and write files on; its parallelism bounds
+	 *            how many files are read or written at once
+	 */
+	public WorkingTree(File root, ForkJoinPool pool)
+	{
+		ROOT = root;
+		POOL = pool;
+	}
+
+	/**
+	 * Lists every file in the working directory, leaving out .gitlet
+	 * 
+	 * @return paths of all of the files, relative to the working directory and
+	 *         separated by '/', in order
+	 */
+	public TreeSet<String> listFiles()
+	{
+		return new TreeSet<String>(POOL.invoke(new ListTask(ROOT.toPath(), "")));
+	}
+
+	/**
+	 * Finds the blob IDs of the contents of the given files. Files that index
+	 * knows to be unchanged are not read; the rest are hashed in parallel and
+	 * recorded in index.
+	 * 
+	 * @param paths
+	 *            paths of the files, relative to the working directory
+	 * @param index
+	 *            stat of the files as gitlet last read or wrote them
+	 * @return map of each path that exists to the blob ID of its contents
+	 * @throws IOException
+	 *             the failure of the first file, in the order of paths, that
+	 *             exists but could not be read, with the failures of the
+	 *             files after it suppressed
+	 */
+	public HashMap<String, String> hashFiles(Collection<String> paths, Index index) throws IOException
+	{
+		return hashFiles(paths, index, null);
+	}
+
+	/**
+	 * Reads again the files that index does not trust because it recorded
+	 * them too soon after they were modified, once they were modified long
+	 * enough ago to be trusted, and records what they hold now. Without this,
+	 * every file gitlet wrote would be read by every later command.
+	 * 
+	 * @param index
+	 *            stat of the files as gitlet last read or wrote them
+	 * @throws IOException
+	 */
+	public void refreshRacy(Index index) throws IOException
+	{
+		hashFiles(index.getRacy(), index);
+	}
+
+	/**
+	 * Stores the contents of the given files in objects. Files that index
+	 * knows to be unchanged, and whose blobs are already stored, are not read;
+	 * the rest are hashed and stored in parallel and recorded in index.
+	 * 
+	 * @param paths
+	 *            paths of the files, relative to the working directory
+	 * @param index
+	 *            stat of the files as gitlet last read or wrote them
+	 * @param objects
+	 *            the ObjectStore to store the files in
+	 * @return map of each path that exists to the blob ID of its contents
+	 * @throws IOException
+	 *             the failure of the first file, in the order of paths, that
+	 *             exists but could not be read or stored, with the failures of
+	 *             the files after it suppressed
+	 */
+	public HashMap<String, String> storeFiles(Collection<String> paths, Index index, ObjectStore objects)
+			throws IOException
+	{
+		return hashFiles(paths, index, objects);
+	}
+
+	private HashMap<String, String> hashFiles(Collection<String> paths, Index index, ObjectStore objects)
+			throws IOException
+	{
+		HashMap<String, String> blobs = new HashMap<String, String>();
+		ArrayList<String> dirty = new ArrayList<String>();
+		for (String path : paths)
+		{
+			String blobID = index.getBlobID(path, new File(ROOT, path));
+			// status records the blobs of files without storing them
+			if (blobID != null && (objects == null || objects.contains(blobID)))
+				blobs.put(path, blobID);
+			else if (new File(ROOT, path).isFile())
+				dirty.add(path);
+		}
+		IOException[] failures = new IOException[dirty.size()];
+		String[] hashed = POOL.invoke(new HashTask(dirty, 0, dirty.size(), objects, failures));
+		IOException failure = null;
+		for (IOException f : failures)
+		{
+			if (f == null)
+				continue;
+			if (failure == null)
+				failure = f;
+			else
+				failure.addSuppressed(f);
+		}
+		if (failure != null)
+			throw failure;
+		for (int i = 0; i < hashed.length; i++)
+		{
+			if (hashed[i] == null)
+				continue;
+			String path = dirty.get(i);
+			blobs.put(path, hashed[i]);
+			try
+			{
+				index.update(path, new File(ROOT, path), hashed[i]);
+			}
+			catch (IOException e)
+			{
+				// removed since it was hashed, so there is no stat to record
+			}
+		}
+		return blobs;
+	}
+
+	/**
+	 * Writes the given versions of files to the working directory in parallel
+	 * and records their stat in index. Every file is written even if some of
+	 * the others fail.
+	 * 
+	 * @param files
+	 *            map of the path of each file, relative to the working
+	 *            directory, to the blob ID of the version to write
+	 * @param objects
+	 *            the ObjectStore holding the blobs
+	 * @param index
+	 *            stat of the files as gitlet last read or wrote them
+	 * @throws IOException
+	 *             the failure of the first file, in path order, that could not
+	 *             be written, with the failures of the files after it
+	 *             suppressed
+	 */
+	public void writeFiles(Map<String, String> files, ObjectStore objects, Index index) throws IOException
+	{
+		ArrayList<String> paths = new ArrayList<String>(files.keySet());
+		Collections.sort(paths);
+		IOException[] failures = POOL.invoke(new WriteTask(paths, files, objects, 0, paths.size()));
+		IOException failure = null;
+		for (int i = 0; i < failures.length; i++)
+		{
+			String path = paths.get(i);
+			if (failures[i] == null)
+			{
+				try
+				{
+					index.update(path, new File(ROOT, path), files.get(path));
+				}
+				catch (IOException e)
+				{
+					failures[i] = new IOException("Could not write " + path, e);
+				}
+			}
+			if (failures[i] == null)
+				continue;
+			if (failure == null)
+				failure = failures[i];
+			else
+				failure.addSuppressed(failures[i]);
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Lists the files in one directory, forking a task for each directory in
+	 * it
+	 */
+	private static class ListTask extends RecursiveTask<ArrayList<String>>
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		private final Path		dir;
+		private final String	prefix;
+
+		ListTask(Path dir, String prefix)
+		{
+			this.dir = dir;
+			this.prefix = prefix;
+		}
+
+		protected ArrayList<String> compute()
+		{
+			ArrayList<String> files = new ArrayList<String>();
+			ArrayList<ListTask> subdirs = new ArrayList<ListTask>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir))
+			{
+				for (Path entry : entries)
+				{
+					String name = entry.getFileName().toString();
+					if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))
+					{
+						if (!(prefix.isEmpty() && name.equals(".gitlet")))
+							subdirs.add(new ListTask(entry, prefix + name + "/"));
+					}
+					else if (Files.isRegularFile(entry))
+						files.add(prefix + name);
+				}
+			}
+			catch (IOException e)
+			{
+				// a directory that cannot be read has no files we can track
+			}
+			invokeAll(subdirs);
+			for (ListTask subdir : subdirs)
+				files.addAll(subdir.join());
+			return files;
+		}
+	}
+
+	/**
+	 * Hashes, and stores if there is somewhere to store them, a range of
+	 * files, splitting it in half until it is one batch. A file that cannot be
+	 * read or stored has its failure put in failures, at its place in paths.
+	 */
+	private class HashTask extends RecursiveTask<String[]>
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		private final List<String>	paths;
+		private final int			start;
+		private final int			end;
+		private final ObjectStore	objects;	// null to only hash
+		private final IOException[]	failures;
+
+		HashTask(List<String> paths, int start, int end, ObjectStore objects, IOException[] failures)
+		{
+			this.paths = paths;
+			this.start = start;
+			this.end = end;
+			this.objects = objects;
+			this.failures = failures;
+		}
+
+		protected String[] compute()
+		{
+			String[] hashed = new String[end - start];
+			if (end - start <= HASH_BATCH)
+			{
+				for (int i = start; i < end; i++)
+				{
+					File file = new File(ROOT, paths.get(i));
+					try
+					{
+						hashed[i - start] = objects == null ? ObjectStore.hash(file) : objects.put(file);
+					}
+					catch (IOException e)
+					{
+						// a file removed while we were looking at it has no
+						// contents; anything else could not be read or stored
+						if (file.exists())
+							failures[i] = new IOException("Could not " + (objects == null ? "read " : "store ")
+									+ paths.get(i), e);
+					}
+				}
+				return hashed;
+			}
+			int mid = (start + end) >>> 1;
+			HashTask left = new HashTask(paths, start, mid, objects, failures);
+			HashTask right = new HashTask(paths, mid, end, objects, failures);
+			invokeAll(left, right);
+			System.arraycopy(left.join(), 0, hashed, 0, mid - start);
+			System.arraycopy(right.join(), 0, hashed, mid - start, end - mid);
+			return hashed;
+		}
+	}
+
+	/**
+	 * Writes a range of files, splitting it in half until it is one batch
+	 */
+	private class WriteTask extends RecursiveTask<IOException[]>
+	{
+		private static final long			serialVersionUID	= 1L;
+
+		private final List<String>			paths;
+		private final Map<String, String>	files;
+		private final ObjectStore			objects;
+		private final int					start;
+		private final int					end;
+
+		WriteTask(List<String> paths, Map<String, String> files, ObjectStore objects, int start, int end)
+		{
+			this.paths = paths;
+			this.files = files;
+			this.objects = objects;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected IOException[] compute()
+		{
+			IOException[] failures = new IOException[end - start];
+			if (end - start <= WRITE_BATCH)
+			{
+				for (int i = start; i < end; i++)
+				{
+					String path = paths.get(i);
+					try
+					{
+						objects.copyTo(files.get(path), new File(ROOT, path));
+					}
+					catch (IOException e)
+					{
+						failures[i - start] = new IOException("Could not write " + path, e);
+					}
+				}
+				return failures;
+			}
+			int mid = (start + end) >>> 1;
+			WriteTask left = new WriteTask(paths, files, objects, start, mid);
+			WriteTask right = new WriteTask(paths, files, objects, mid, end);
+			invokeAll(left, right);
+			System.arraycopy(left.join(), 0, failures, 0, mid - start);
+			System.arraycopy(right.join(), 0, failures, mid - start, end - mid);
+			return failures;
+		}
+	}
+}